@@ -0,0 +1,13 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Raised when a script runs out of one of the limits configured on its execution budget. It is a
+ * {@link RuntimeError} so it unwinds through the interpreter like any other runtime failure and is
+ * reported against the line where the budget ran out.
+ */
+public class BudgetExceededError extends RuntimeError {
+
+    public BudgetExceededError(Token token, String message) {
+        super(token, message);
+    }
+}
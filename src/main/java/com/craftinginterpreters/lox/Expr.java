@@ -182,6 +182,12 @@ public abstract class Expr {
     {
         private final Expr operand;
         private final Token member;
+        //the member's number in Symbols, so running this indexes the class's tables directly
+        private final int symbol;
+
+        public Get(Expr operand, Token member) {
+            this(operand, member, Symbols.intern(member.getLexeme()));
+        }
 
         @Override
         public ExprType getExprType() {
@@ -202,6 +208,11 @@ public abstract class Expr {
         private final Expr operand;
         private final Token member;
         private final Expr value;
+        private final int symbol;
+
+        public Set(Expr operand, Token member, Expr value) {
+            this(operand, member, value, Symbols.intern(member.getLexeme()));
+        }
 
         @Override
         public ExprType getExprType() {
@@ -231,4 +242,88 @@ public abstract class Expr {
             return visitor.visitThisExpr(this);
         }
     }
+
+    @Data
+    @RequiredArgsConstructor
+    @EqualsAndHashCode(callSuper = false)
+    public static class Super extends Expr
+    {
+        private final Token keyword;
+        private final Token method;
+        private final int symbol;
+
+        public Super(Token keyword, Token method) {
+            this(keyword, method, Symbols.intern(method.getLexeme()));
+        }
+
+        @Override
+        public ExprType getExprType() {
+            return ExprType.SUPER;
+        }
+
+        @Override
+        public <R> R accept(ExprVisitor<R> visitor) {
+            return visitor.visitSuperExpr(this);
+        }
+    }
+
+    @Data
+    @RequiredArgsConstructor
+    @EqualsAndHashCode(callSuper = false)
+    public static class Array extends Expr
+    {
+        private final Token bracket;
+        private final List<Expr> elements;
+
+        @Override
+        public ExprType getExprType() {
+            return ExprType.ARRAY;
+        }
+
+        @Override
+        public <R> R accept(ExprVisitor<R> visitor) {
+            return visitor.visitArrayExpr(this);
+        }
+    }
+
+    @Data
+    @RequiredArgsConstructor
+    @EqualsAndHashCode(callSuper = false)
+    public static class Index extends Expr
+    {
+        private final Expr operand;
+        private final Token bracket;
+        private final Expr index;
+
+        @Override
+        public ExprType getExprType() {
+            return ExprType.INDEX;
+        }
+
+        @Override
+        public <R> R accept(ExprVisitor<R> visitor) {
+            return visitor.visitIndexExpr(this);
+        }
+    }
+
+    @Data
+    @RequiredArgsConstructor
+    @EqualsAndHashCode(callSuper = false)
+    public static class IndexSet extends Expr
+    {
+        private final Expr operand;
+        private final Token bracket;
+        private final Expr index;
+        private final Expr value;
+
+        @Override
+        public ExprType getExprType() {
+            return ExprType.INDEX_SET;
+        }
+
+        @Override
+        public <R> R accept(ExprVisitor<R> visitor) {
+            return visitor.visitIndexSetExpr(this);
+        }
+    }
 }
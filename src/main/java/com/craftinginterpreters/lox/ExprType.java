@@ -12,5 +12,9 @@ public enum ExprType {
     ANONYMOUS_FUNCTION,
     GET,
     SET,
-    THIS
+    THIS,
+    SUPER,
+    ARRAY,
+    INDEX,
+    INDEX_SET
 }
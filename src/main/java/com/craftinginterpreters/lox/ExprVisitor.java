@@ -27,4 +27,11 @@ public interface ExprVisitor<R> {
     R visitSetExpr(Expr.Set expr);
 
     R visitThisExpr(Expr.This expr);
+
+    R visitSuperExpr(Expr.Super expr);
+
+    R visitArrayExpr(Expr.Array expr);
+
+    R visitIndexExpr(Expr.Index expr);
+    R visitIndexSetExpr(Expr.IndexSet expr);
 }
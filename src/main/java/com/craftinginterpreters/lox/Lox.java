@@ -3,15 +3,22 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.Statement;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import com.craftinginterpreters.lox.visitors.AstPrinter;
+import com.craftinginterpreters.lox.visitors.BufferedOutputSink;
+import com.craftinginterpreters.lox.visitors.ExecutionMetrics;
 import com.craftinginterpreters.lox.visitors.Interpreter;
 import com.craftinginterpreters.lox.visitors.Resolver;
+import com.craftinginterpreters.lox.visitors.SamplingProfiler;
 
 /**
  * Hello world!
@@ -22,19 +29,91 @@ public class Lox
     private static boolean hadError;
     private static boolean hadRuntimeError;
 
-    private final static Interpreter interpreter = new Interpreter();
-    private final static Resolver resolver = new Resolver(interpreter);
+    //made by main once the arguments are read, not when the class is initialized: a call to report()
+    //from the resolver or a test, or a bad command line, then never builds an interpreter
+    private static Interpreter interpreter;
+    private static Resolver resolver;
 
     public static void main( String[] args ) throws IOException
     {
-        if(args.length > 1)
-        {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
+        String script = null;
+        long stackSize = 0;
+        String profilePath = null;
+        boolean metricsEnabled = false;
+        String outputPath = null;
+        int pureCacheCapacity = 0;
+        for(String arg : args) {
+            if(arg.startsWith("--stack-size=")) {
+                stackSize = parseSize(arg.substring("--stack-size=".length()));
+            } else if(arg.startsWith("--profile=")) {
+                profilePath = arg.substring("--profile=".length());
+            } else if(arg.startsWith("--output=")) {
+                outputPath = arg.substring("--output=".length());
+            } else if(arg.startsWith("--memoize-pure=")) {
+                pureCacheCapacity = parseCount(arg.substring("--memoize-pure=".length()));
+            } else if(arg.equals("--metrics")) {
+                metricsEnabled = true;
+            } else if(script == null && !arg.startsWith("--")) {
+                script = arg;
+            } else {
+                usage();
+            }
+        }
+
+        interpreter = new Interpreter();
+        resolver = new Resolver(interpreter);
+        if(outputPath != null) {
+            interpreter.setOutput(BufferedOutputSink.toFile(Paths.get(outputPath)));
+        }
+        interpreter.setPureCacheCapacity(pureCacheCapacity);
+        interpreter.setStackSize(stackSize);
+        SamplingProfiler profiler = null;
+        if(profilePath != null) {
+            profiler = new SamplingProfiler(1, TimeUnit.MILLISECONDS);
+            interpreter.setProfiler(profiler);
+            profiler.start();
+        }
+        ExecutionMetrics metrics = null;
+        if(metricsEnabled) {
+            metrics = new ExecutionMetrics();
+            interpreter.setMetrics(metrics);
+            //kept out of this class, so loading it does not load the management API
+            metrics.registerOrWarn();
+        }
+
+        if(stackSize > 0) {
+            //deep recursion mode: the JVM only lets us pick the stack size of a new thread
+            runOnThread(script, stackSize);
+        } else {
+            run(script);
+        }
+        interpreter.closeFiles();
+        interpreter.getOutput().close();
+
+        if(profiler != null) {
+            profiler.stop();
+            try (Writer out = Files.newBufferedWriter(Paths.get(profilePath), StandardCharsets.UTF_8)) {
+                profiler.writeCollapsed(out);
+            }
+        }
+        if(metrics != null) {
+            System.err.print(metrics.getReport());
         }
-        else if(args.length == 1) {
+        if(script != null) {
+            if(hadError) { System.exit(65); }
+            if(hadRuntimeError) { System.exit(70); }
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--stack-size=<bytes>[k|m|g]] [--profile=<file>] [--metrics] [--output=<file>] [--memoize-pure=<entries>] [script]");
+        System.exit(64);
+    }
+
+    private static void run(String script) throws IOException {
+        if(script != null) {
             //This path means we want to run a lox file
-            runFile(args[0]);
+            runFile(script);
         }
         else {
             //We want to run on console
@@ -42,10 +121,59 @@ public class Lox
         }
     }
 
+    private static void runOnThread(String script, long stackSize) {
+        Thread thread = new Thread(null, () -> {
+            try {
+                run(script);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, "lox-main", stackSize);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //a plain non-negative int, no k/m/g: these are entries, not bytes
+    private static int parseCount(String text) {
+        try {
+            int count = Integer.parseInt(text);
+            if(count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            //falls through to the usage message
+        }
+        usage();
+        return 0;
+    }
+
+    private static long parseSize(String text) {
+        long multiplier = 1;
+        char unit = Character.toLowerCase(text.charAt(text.length() - 1));
+        if(unit == 'k') {
+            multiplier = 1024L;
+        } else if(unit == 'm') {
+            multiplier = 1024L * 1024L;
+        } else if(unit == 'g') {
+            multiplier = 1024L * 1024L * 1024L;
+        }
+        String digits = multiplier == 1 ? text : text.substring(0, text.length() - 1);
+        try {
+            return Long.parseLong(digits) * multiplier;
+        } catch (NumberFormatException e) {
+            usage();
+            return 0;
+        }
+    }
+
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if(hadError) { System.exit(65); }
+        interpreter.setScriptPath(Paths.get(path));
+        evaluate(new String(bytes, Charset.defaultCharset()));
     }
 
     static enum RunMode {
@@ -70,7 +198,7 @@ public class Lox
                 runMode = RunMode.PRINT_TOKENS;
             } else {
                 if(runMode == RunMode.PRINT_TOKENS) {
-                    run(line);
+                    printTokens(line);
                 } else if(runMode == RunMode.PRINT_AST) {
                     printAst(line);
                 } else if(runMode == RunMode.EVALUATE) {
@@ -81,7 +209,7 @@ public class Lox
         }
     }
 
-    private static void run(String source) {
+    private static void printTokens(String source) {
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
         for(Token token : tokens) {
@@ -105,6 +233,9 @@ public class Lox
         List<Token> tokens = scanner.scanTokens();
         Parser parser = new Parser(tokens);
         List<Stmt> statements = parser.parse();
+        if(hadError) {
+            return;
+        }
         resolver.resolve(statements);
         if(hadError) {
             return;
@@ -48,6 +48,8 @@ public class Parser {
             }
             else if(match(VAR)){
                 return varDeclaration();
+            } else if(match(IMPORT)) {
+                return importDeclaration();
             }
             return  statement();
         } catch (ParseError error){
@@ -58,13 +60,56 @@ public class Parser {
 
     private Stmt classDeclaration() {
         Token name = consume(IDENTIFIER, "Expected class name.");
+        Expr.Variable superclass = null;
+        if(match(LESS)) {
+            consume(IDENTIFIER, "Expected superclass name.");
+            superclass = new Expr.Variable(previous());
+        }
         consume(LEFT_BRACE, "Expected '{' before class body.");
         List<Stmt.Function> methods = new ArrayList<>();
+        List<Stmt.Property> properties = new ArrayList<>();
         while(!check(RIGHT_BRACE) && !isAtEnd()) {
-            methods.add(function("method", true));
+            //a property name is followed by its body, a method name by its parameters
+            Token afterName = peek(check(CLASS) ? 2 : 1);
+            if(afterName != null && afterName.getType() == LEFT_BRACE) {
+                properties.add(property());
+            } else {
+                methods.add(function("method", true));
+            }
         }
         consume(RIGHT_BRACE, "Expected '}' after class body.");
-        return  new Stmt.Class(name, methods);
+        return  new Stmt.Class(name, superclass, methods, properties);
+    }
+
+    private Stmt.Property property() {
+        boolean isStatic = match(CLASS);
+        Token name = consume(IDENTIFIER, "Expect property name.");
+        consume(LEFT_BRACE, "Expect '{' after property name.");
+        Stmt.Function getter = null;
+        Stmt.Function setter = null;
+        while(!check(RIGHT_BRACE) && !isAtEnd()) {
+            Token accessor = consume(IDENTIFIER, "Expect 'get' or 'set' in property body.");
+            boolean isGetter = accessor.getLexeme().equals("get");
+            //reported without unwinding, so the accessor's body is still skipped as a whole
+            if(!isGetter && !accessor.getLexeme().equals("set")) {
+                error(accessor, "Expect 'get' or 'set' in property body.");
+            } else if(isGetter ? getter != null : setter != null) {
+                error(accessor, "A property can only have one '" + accessor.getLexeme() + "'.");
+            }
+            consume(LEFT_BRACE, "Expect '{' after '" + accessor.getLexeme() + "'.");
+            if(isGetter) {
+                getter = new Stmt.Function(name, new ArrayList<>(), block(), isStatic);
+            } else {
+                List<Token> params = new ArrayList<>();
+                params.add(new Token(IDENTIFIER, "value", null, accessor.getLine()));
+                setter = new Stmt.Function(name, params, block(), isStatic);
+            }
+        }
+        consume(RIGHT_BRACE, "Expect '}' after property body.");
+        if(getter == null && setter == null) {
+            throw error(name, "A property needs a 'get' or a 'set'.");
+        }
+        return new Stmt.Property(name, getter, setter, isStatic);
     }
 
     private Stmt.Function function(String kind, boolean isStaticEnabled) {
@@ -108,6 +153,36 @@ public class Parser {
         return new Stmt.Var(name, initializer);
     }
 
+    private Stmt importDeclaration() {
+        Token keyword = previous();
+        Token path = consume(STRING, "Expect module path after 'import'.");
+        Token name;
+        //'as' is only a keyword here, so it stays a valid name
+        if(check(IDENTIFIER) && peek().getLexeme().equals("as")) {
+            advance();
+            name = consume(IDENTIFIER, "Expect module name after 'as'.");
+        } else {
+            name = moduleName(path);
+        }
+        consume(SEMICOLON, "Expect ';' after import.");
+        return new Stmt.Import(keyword, path, name);
+    }
+
+    private Token moduleName(Token path) {
+        String file = (String) path.getLiteral();
+        file = file.substring(Math.max(file.lastIndexOf('/'), file.lastIndexOf('\\')) + 1);
+        int extension = file.lastIndexOf('.');
+        String name = extension > 0 ? file.substring(0, extension) : file;
+        boolean valid = !name.isEmpty() && (Character.isLetter(name.charAt(0)) || name.charAt(0) == '_');
+        for(int i = 1; i < name.length() && valid; i++) {
+            valid = Character.isLetterOrDigit(name.charAt(i)) || name.charAt(i) == '_';
+        }
+        if(!valid) {
+            throw error(path, "Module '" + file + "' needs 'as' and a name to import it under.");
+        }
+        return new Token(IDENTIFIER, name, null, path.getLine());
+    }
+
     private Stmt statement(){
         if(match(PRINT)) {
             return printStatement();
@@ -125,6 +200,8 @@ public class Parser {
             return breakStmt();
         } else if (match(RETURN)) {
             return returnStmt();
+        } else if (match(YIELD)) {
+            return yieldStmt();
         }
         return  expressionStatement();
     }
@@ -148,17 +225,22 @@ public class Parser {
     }
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "expected '(' for while statement condition.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expected ')' for while statement condition");
         parseContext = ParseContext.LOOP_BODY;
         Stmt body = statement();
         parseContext = ParseContext.DEFAULT;
-        return  new Stmt.While(condition, body);
+        return  new Stmt.While(keyword, condition, body);
     }
 
     private Stmt forStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expected '(' after for keyword");
+        if(isForIn()) {
+            return forInStatement(keyword);
+        }
         Stmt initializer;
         if(match(VAR)) {
             initializer = varDeclaration();
@@ -183,7 +265,7 @@ public class Parser {
         parseContext = ParseContext.LOOP_BODY;
         Stmt body = statement();
         parseContext = ParseContext.DEFAULT;
-        return new Stmt.For(initializer, condition, increment, body);
+        return new Stmt.For(keyword, initializer, condition, increment, body);
 
         /* Note: Decided against de sugaring for now so that I can implement continue on the for loop
         // When I desugar, I can't find a good way to implement the continue statement, I need the increment
@@ -212,6 +294,27 @@ public class Parser {
         return  body;*/
     }
 
+    //'in' is only a keyword between the loop variable and the iterable, so it stays a valid name
+    private boolean isForIn() {
+        int name = check(VAR) ? 1 : 0;
+        Token variable = peek(name);
+        Token in = peek(name + 1);
+        return variable != null && variable.getType() == IDENTIFIER
+                && in != null && in.getType() == IDENTIFIER && in.getLexeme().equals("in");
+    }
+
+    private Stmt forInStatement(Token keyword) {
+        match(VAR);
+        Token name = consume(IDENTIFIER, "Expected loop variable name.");
+        advance();
+        Expr iterable = expression();
+        consume(RIGHT_PAREN, "Expected ')' after for clause");
+        parseContext = ParseContext.LOOP_BODY;
+        Stmt body = statement();
+        parseContext = ParseContext.DEFAULT;
+        return new Stmt.ForIn(keyword, name, iterable, body);
+    }
+
     private Stmt continueStmt(){
         if(parseContext != ParseContext.LOOP_BODY) {
             throw error(previous(), "The continue keyword is only allowed in the context of a loop");
@@ -239,6 +342,17 @@ public class Parser {
         return new Stmt.Return(keyword, value);
     }
 
+    private Stmt yieldStmt() {
+        Token keyword = previous();
+        Expr value = null;
+        if (!check(SEMICOLON)) {
+            value = expression();
+        }
+
+        consume(SEMICOLON, "Expect ';' after yield value.");
+        return new Stmt.Yield(keyword, value);
+    }
+
     private List<Stmt> block() {
         List<Stmt> statements = new ArrayList<>();
 
@@ -287,6 +401,9 @@ public class Parser {
             } else if(expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get)expr;
                 return new Expr.Set(get.getOperand(), get.getMember(), value);
+            } else if(expr instanceof Expr.Index) {
+                Expr.Index index = (Expr.Index)expr;
+                return new Expr.IndexSet(index.getOperand(), index.getBracket(), index.getIndex(), value);
             }
 
             throw error(equals, "Invalid assignment target.");
@@ -372,6 +489,10 @@ public class Parser {
             } else if(match(DOT)) {
                 Token name = consume(IDENTIFIER, "Expected identifier after '.'.");
                 expr = new Expr.Get(expr, name);
+            } else if(match(LEFT_BRACKET)) {
+                Expr index = expression();
+                Token bracket = consume(RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
             } else {
                 break;
             }
@@ -399,6 +520,12 @@ public class Parser {
         if(match(TRUE)) return new Expr.Literal(true);
         if(match(NIL)) return new  Expr.Literal(null);
         if(match(THIS)) return new Expr.This(previous());
+        if(match(SUPER)) {
+            Token keyword = previous();
+            consume(DOT, "Expected '.' after 'super'.");
+            Token method = consume(IDENTIFIER, "Expected superclass method name.");
+            return new Expr.Super(keyword, method);
+        }
 
         if(match(NUMBER, STRING)) {
             return new Expr.Literal(previous().getLiteral());
@@ -412,9 +539,24 @@ public class Parser {
             consume(RIGHT_PAREN, "Expected ')' after expression");
             return new Expr.Grouping(expr);
         }
+        if(match(LEFT_BRACKET)) {
+            return arrayLiteral();
+        }
         throw new RuntimeException("Unknown primary type: " + peek().getType());
     }
 
+    private Expr arrayLiteral() {
+        Token bracket = previous();
+        List<Expr> elements = new ArrayList<>();
+        if(!check(RIGHT_BRACKET)) {
+            do {
+                elements.add(expression());
+            } while(match(COMMA));
+        }
+        consume(RIGHT_BRACKET, "Expect ']' after array elements.");
+        return new Expr.Array(bracket, elements);
+    }
+
     private boolean isAtEnd() {
         return peek().getType() == EOF;
     }
@@ -489,6 +631,8 @@ public class Parser {
                 case WHILE:
                 case PRINT:
                 case RETURN:
+                case YIELD:
+                case IMPORT:
                     return;
             }
 
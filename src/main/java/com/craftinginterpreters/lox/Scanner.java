@@ -38,6 +38,8 @@ public class Scanner {
         keywords.put("while", WHILE);
         keywords.put("break", BREAK);
         keywords.put("continue", CONTINUE);
+        keywords.put("yield", YIELD);
+        keywords.put("import", IMPORT);
     }
 
     public Scanner(final String source) {
@@ -72,6 +74,12 @@ public class Scanner {
             case '}':
                 addToken(RIGHT_BRACE);
                 break;
+            case '[':
+                addToken(LEFT_BRACKET);
+                break;
+            case ']':
+                addToken(RIGHT_BRACKET);
+                break;
             case ',':
                 addToken(COMMA);
                 break;
@@ -82,6 +82,7 @@ public abstract class Stmt {
     @RequiredArgsConstructor
     @EqualsAndHashCode(callSuper = false)
     public static class While extends  Stmt {
+        private final Token keyword;
         private final Expr condition;
         private final Stmt body;
 
@@ -107,6 +108,7 @@ public abstract class Stmt {
     @RequiredArgsConstructor
     @EqualsAndHashCode(callSuper = false)
     public static class For extends  Stmt {
+        private final Token keyword;
         private final Stmt initializer;
         private final Expr condition;
         private final Expr increment;
@@ -118,6 +120,21 @@ public abstract class Stmt {
         }
     }
 
+    @Data
+    @RequiredArgsConstructor
+    @EqualsAndHashCode(callSuper = false)
+    public static class ForIn extends  Stmt {
+        private final Token keyword;
+        private final Token name;
+        private final Expr iterable;
+        private final Stmt body;
+
+        @Override
+        public <T> T accept(StmtVisitor<T> visitor) {
+            return  visitor.visitForInStmt(this);
+        }
+    }
+
     @Data
     @RequiredArgsConstructor
     @EqualsAndHashCode(callSuper = false)
@@ -147,12 +164,29 @@ public abstract class Stmt {
         }
     }
 
+    @Data
+    @RequiredArgsConstructor
+    @EqualsAndHashCode(callSuper = false)
+    public static class Yield extends Stmt {
+
+        private final Token keyword;
+        private final Expr value;
+
+        @Override
+        public <T> T accept(StmtVisitor<T> visitor) {
+            return visitor.visitYieldStmt(this);
+        }
+    }
+
     @Data
     @RequiredArgsConstructor
     @EqualsAndHashCode(callSuper = false)
     public static class Class extends Stmt {
         private final Token name;
+        //null when the class has no superclass
+        private final Expr.Variable superclass;
         private final List<Function> methods;
+        private final List<Property> properties;
 
         @Override
         public <T> T accept(StmtVisitor<T> visitor) {
@@ -166,12 +200,28 @@ public abstract class Stmt {
     public static class Property extends Stmt {
 
         private final Token name;
-        private final List<Stmt> getter;
-        private final List<Stmt> setter;
+        //either may be null, not both; the setter takes the assigned value as 'value'
+        private final Function getter;
+        private final Function setter;
         private final boolean isStatic;
         @Override
         public <T> T accept(StmtVisitor<T> visitor) {
-            throw new RuntimeException("Not implemented");
+            return visitor.visitPropertyStmt(this);
+        }
+    }
+
+    @Data
+    @RequiredArgsConstructor
+    @EqualsAndHashCode(callSuper = false)
+    public static class Import extends Stmt {
+        private final Token keyword;
+        private final Token path;
+        //what the module is bound to: the name after 'as', or the file name without its extension
+        private final Token name;
+
+        @Override
+        public <T> T accept(StmtVisitor<T> visitor) {
+            return visitor.visitImportStmt(this);
         }
     }
 }
@@ -8,8 +8,12 @@ public interface StmtVisitor<T> {
     T visitIfStmt(Stmt.If statement);
     T visitWhileStmt(Stmt.While statement);
     T visitForStmt(Stmt.For statement);
+    T visitForInStmt(Stmt.ForIn statement);
     T visitKeywordStmt(Stmt.Keyword statement);
     T visitFunctionStmt (Stmt.Function statement);
     T visitReturnStmt(Stmt.Return stmt);
+    T visitYieldStmt(Stmt.Yield stmt);
     T visitClassStmt(Stmt.Class stmt);
+    T visitPropertyStmt(Stmt.Property stmt);
+    T visitImportStmt(Stmt.Import stmt);
 }
@@ -0,0 +1,34 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Numbers member names, so a class can keep its methods, and a fixed layout its fields, in an
+ * array indexed by that number. The parser numbers the member of every get, set and super
+ * expression, so running one indexes the table without looking the name up.
+ * The numbering is shared by every interpreter in the process, since parsed modules are too, and
+ * only ever grows.
+ */
+public final class Symbols {
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    private Symbols() {
+    }
+
+    public static synchronized int intern(String name) {
+        Integer id = ids.get(name);
+        if(id == null) {
+            id = ids.size();
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * The number of a name, or -1 when it has never been interned.
+     */
+    public static int find(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+}
@@ -2,7 +2,7 @@ package com.craftinginterpreters.lox;
 
 public enum TokenType {
     // Single-character tokens.
-  LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
+  LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, LEFT_BRACKET, RIGHT_BRACKET,
   COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR, PERCENT,
 
   // One or two character tokens.
@@ -18,6 +18,6 @@ public enum TokenType {
   // Keywords.
   AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
   PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
-  BREAK, CONTINUE,
+  BREAK, CONTINUE, YIELD, IMPORT,
   EOF
 }
@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.util.List;
+
+/**
+ * The arguments of one call, usable as a hash key. Numbers, strings and booleans compare by value
+ * (with {@code -0} equal to {@code 0} and a {@link LoxString} equal to the same String); instances,
+ * functions, arrays and every other object compare by identity, as Lox's {@code ==} does.
+ */
+final class ArgumentKey {
+    private final Object[] values;
+    private final int hash;
+
+    ArgumentKey(List<Object> arguments) {
+        values = new Object[arguments.size()];
+        int h = 1;
+        for(int i = 0; i < values.length; i++) {
+            Object value = LoxMap.key(arguments.get(i));
+            values[i] = value;
+            h = 31 * h + hash(value);
+        }
+        hash = h;
+    }
+
+    private static boolean isValue(Object value) {
+        return value instanceof Double || value instanceof String || value instanceof Boolean;
+    }
+
+    private static int hash(Object value) {
+        if(value == null) {
+            return 0;
+        }
+        return isValue(value) ? value.hashCode() : System.identityHashCode(value);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(!(other instanceof ArgumentKey)) {
+            return false;
+        }
+        ArgumentKey key = (ArgumentKey) other;
+        if(key.hash != hash || key.values.length != values.length) {
+            return false;
+        }
+        for(int i = 0; i < values.length; i++) {
+            Object a = values[i];
+            Object b = key.values[i];
+            if(a != b && !(isValue(a) && a.equals(b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -185,6 +185,28 @@ public class AstPrinter implements ExprVisitor<String>, StmtVisitor<String> {
         }
     }
 
+    @Override
+    public String visitImportStmt(Stmt.Import stmt) {
+        return "import " + stmt.getPath().getLexeme() + " as " + stmt.getName().getLexeme() + ";";
+    }
+
+    @Override
+    public String visitYieldStmt(Stmt.Yield stmt) {
+        if(stmt.getValue() != null) {
+            return  "yield " + stmt.getValue().accept(this) + ";";
+        } else {
+            return  "yield;";
+        }
+    }
+
+    @Override
+    public String visitForInStmt(Stmt.ForIn statement) {
+        return String.format("for(var %s in %s){ %s }",
+                statement.getName().getLexeme(),
+                statement.getIterable().accept(this),
+                statement.getBody().accept(this));
+    }
+
     @Override
     public String visitCallExpr(Expr.Call expr) {
         StringBuilder builder = new StringBuilder();
@@ -205,16 +227,48 @@ public class AstPrinter implements ExprVisitor<String>, StmtVisitor<String> {
     public String visitClassStmt(Stmt.Class stmt) {
         StringBuilder builder = new StringBuilder();
         builder.append(stmt.getName().getLexeme());
+        if(stmt.getSuperclass() != null) {
+            builder.append(" < ").append(stmt.getSuperclass().getName().getLexeme());
+        }
         builder.append(" {");
         builder.append(System.lineSeparator());
         for (Stmt.Function fn: stmt.getMethods()) {
             String fnText = fn.accept(this);
             builder.append(fnText).append(System.lineSeparator());
         }
+        for (Stmt.Property property: stmt.getProperties()) {
+            builder.append(property.accept(this)).append(System.lineSeparator());
+        }
         builder.append("}");
         return builder.toString();
     }
 
+    @Override
+    public String visitPropertyStmt(Stmt.Property stmt) {
+        StringBuilder builder = new StringBuilder();
+        if(stmt.isStatic()) {
+            builder.append("class ");
+        }
+        builder.append(stmt.getName().getLexeme()).append(" {").append(System.lineSeparator());
+        appendAccessor(builder, "get", stmt.getGetter());
+        appendAccessor(builder, "set", stmt.getSetter());
+        builder.append("}");
+        return builder.toString();
+    }
+
+    private void appendAccessor(StringBuilder builder, String kind, Stmt.Function accessor) {
+        if(accessor == null) {
+            return;
+        }
+        builder.append(kind).append(" { ").append(System.lineSeparator());
+        for (Stmt stmt: accessor.getBody()) {
+            builder.append("\t");
+            builder.append(stmt.accept(this));
+            builder.append(System.lineSeparator());
+        }
+        builder.append("}").append(System.lineSeparator());
+    }
+
     @Override
     public String visitGetExpr(Expr.Get expr) {
         String operand = expr.getOperand().accept(this);
@@ -233,6 +287,35 @@ public class AstPrinter implements ExprVisitor<String>, StmtVisitor<String> {
         return "this";
     }
 
+    @Override
+    public String visitSuperExpr(Expr.Super expr) {
+        return "super." + expr.getMethod().getLexeme();
+    }
+
+    @Override
+    public String visitArrayExpr(Expr.Array expr) {
+        StringBuilder builder = new StringBuilder();
+        builder.append('[');
+        for(int i=0; i<expr.getElements().size(); i++) {
+            builder.append(expr.getElements().get(i).accept(this));
+            if(i < expr.getElements().size() - 1){
+                builder.append(", ");
+            }
+        }
+        builder.append(']');
+        return builder.toString();
+    }
+
+    @Override
+    public String visitIndexExpr(Expr.Index expr) {
+        return expr.getOperand().accept(this) + "[" + expr.getIndex().accept(this) + "]";
+    }
+
+    @Override
+    public String visitIndexSetExpr(Expr.IndexSet expr) {
+        return expr.getOperand().accept(this) + "[" + expr.getIndex().accept(this) + "] = " + expr.getValue().accept(this);
+    }
+
     private String parenthesize(String name, Expr... exprs) {
         StringBuilder builder = new StringBuilder();
     
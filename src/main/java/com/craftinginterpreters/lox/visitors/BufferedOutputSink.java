@@ -0,0 +1,128 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects printed lines and writes them to a channel in one go once {@code bufferSize} characters
+ * have piled up, or on the first print after {@code maxDelay} has passed since the oldest unwritten
+ * line. Nothing is written between prints, so a script that prints and then computes for a while
+ * shows that line at the next print or when the run ends.
+ */
+public class BufferedOutputSink implements OutputSink {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 100;
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final StringBuilder pending;
+    private final ByteBuffer bytes;
+    private final int bufferSize;
+    private final long maxDelayNanos;
+    private long oldestPending;
+
+    public BufferedOutputSink(WritableByteChannel channel) {
+        this(channel, Charset.defaultCharset(), DEFAULT_BUFFER_SIZE, DEFAULT_MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public BufferedOutputSink(WritableByteChannel channel, Charset charset, int bufferSize, long maxDelay, TimeUnit unit) {
+        this.channel = channel;
+        this.encoder = charset.newEncoder();
+        this.bufferSize = bufferSize;
+        this.pending = new StringBuilder(bufferSize + 256);
+        this.bytes = ByteBuffer.allocate((int) Math.max(1024, bufferSize * (double) encoder.maxBytesPerChar()));
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    /**
+     * A sink over whatever {@code System.out} is at the time of the call.
+     */
+    public static BufferedOutputSink stdout() {
+        return new BufferedOutputSink(Channels.newChannel(System.out));
+    }
+
+    public static BufferedOutputSink toFile(Path path) throws IOException {
+        return new BufferedOutputSink(FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    @Override
+    public void println(CharSequence text) {
+        long now = System.nanoTime();
+        if(pending.length() == 0) {
+            oldestPending = now;
+        }
+        pending.append(text).append(LINE_SEPARATOR);
+        if(pending.length() >= bufferSize || now - oldestPending >= maxDelayNanos) {
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() {
+        if(pending.length() == 0) {
+            return;
+        }
+        try {
+            CharBuffer chars = CharBuffer.wrap(pending);
+            for(;;) {
+                CoderResult result = encoder.encode(chars, bytes, true);
+                if(result.isError()) {
+                    result.throwException();
+                }
+                drain();
+                if(result.isUnderflow()) {
+                    break;
+                }
+            }
+            encoder.flush(bytes);
+            drain();
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            encoder.reset();
+            bytes.clear();
+            pending.setLength(0);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            //System.out belongs to the JVM; only close channels we were given for files
+            if(channel instanceof FileChannel) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while(bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
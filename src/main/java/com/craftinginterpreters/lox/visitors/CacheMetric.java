@@ -0,0 +1,15 @@
+package com.craftinginterpreters.lox.visitors;
+
+import lombok.Data;
+
+@Data
+public class CacheMetric {
+    private final String function;
+    private final String policy;
+    private final int capacity;
+    private final int size;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final double hitRate;
+}
@@ -0,0 +1,30 @@
+package com.craftinginterpreters.lox.visitors;
+
+/**
+ * One activation of a {@link LoxFunction}: the function that is running, the environment that
+ * holds its parameters and locals and the line of the call that created it. Frames are owned by the {@link CallStack} and reused between
+ * calls, so they should not be held on to.
+ */
+public class CallFrame {
+    private LoxFunction function;
+    private Environment environment;
+    private int callLine;
+
+    void set(LoxFunction function, Environment environment, int callLine) {
+        this.function = function;
+        this.environment = environment;
+        this.callLine = callLine;
+    }
+
+    public LoxFunction getFunction() {
+        return function;
+    }
+
+    public Environment getEnvironment() {
+        return environment;
+    }
+
+    public int getCallLine() {
+        return callLine;
+    }
+}
@@ -0,0 +1,57 @@
+package com.craftinginterpreters.lox.visitors;
+
+/**
+ * The Lox level call stack. It lives on the heap and grows by doubling, so its depth is not tied
+ * to the JVM thread stack the interpreter happens to run on. A tail call replaces the frame on top
+ * instead of pushing a new one.
+ */
+public class CallStack {
+    private CallFrame[] frames = new CallFrame[64];
+    private int size;
+
+    public int depth() {
+        return size;
+    }
+
+    public CallFrame get(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + size);
+        }
+        return frames[index];
+    }
+
+    public CallFrame peek() {
+        return size == 0 ? null : frames[size - 1];
+    }
+
+    void push(LoxFunction function, Environment environment, int callLine) {
+        if(size == frames.length) {
+            CallFrame[] grown = new CallFrame[frames.length * 2];
+            System.arraycopy(frames, 0, grown, 0, size);
+            frames = grown;
+        }
+        CallFrame frame = frames[size];
+        if(frame == null) {
+            frame = new CallFrame();
+            frames[size] = frame;
+        }
+        frame.set(function, environment, callLine);
+        size++;
+    }
+
+    void replaceTop(LoxFunction function, Environment environment) {
+        //the caller did not change, so neither did the line it called from
+        CallFrame frame = frames[size - 1];
+        frame.set(function, environment, frame.getCallLine());
+    }
+
+    void pop() {
+        frames[--size].set(null, null, 0);
+    }
+
+    void clear() {
+        while(size > 0) {
+            pop();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.craftinginterpreters.lox.visitors;
+
+/**
+ * A local variable some closure captures. The scope declaring it and every closure capturing it
+ * hold the same cell, so an assignment through any of them is seen by all.
+ */
+final class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,12 @@
+package com.craftinginterpreters.lox.visitors;
+
+import lombok.Data;
+
+@Data
+public class ClassMetric {
+    private final String className;
+    private final long allocated;
+    private final long liveEstimate;
+    private final double averageFields;
+    private final boolean fixedLayout;
+}
@@ -0,0 +1,41 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.Expr;
+import com.craftinginterpreters.lox.Token;
+import com.craftinginterpreters.lox.TokenType;
+
+/**
+ * A {@code for} loop the resolver proved to be {@code for (var i = start; i < limit; i = i + step)}
+ * with a limit that does not change while it runs and a counter only the increment writes. The
+ * interpreter evaluates the limit once and keeps the counter in a local double. It is boxed and
+ * stored into the loop's environment only when the body reads it; closures never do, since a loop
+ * whose counter is captured is not counted.
+ */
+class CountedLoop {
+    final Token variable;
+    final TokenType comparison;
+    final Expr limit;
+    final double step;
+    final boolean bodyReadsCounter;
+
+    CountedLoop(Token variable, TokenType comparison, Expr limit, double step, boolean bodyReadsCounter) {
+        this.variable = variable;
+        this.comparison = comparison;
+        this.limit = limit;
+        this.step = step;
+        this.bodyReadsCounter = bodyReadsCounter;
+    }
+
+    boolean test(double counter, double limit) {
+        switch (comparison) {
+            case LESS:
+                return counter < limit;
+            case LESS_EQUAL:
+                return counter <= limit;
+            case GREATER:
+                return counter > limit;
+            default:
+                return counter >= limit;
+        }
+    }
+}
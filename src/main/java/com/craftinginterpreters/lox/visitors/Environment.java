@@ -8,7 +8,7 @@ import java.util.HashMap;
 
 public class Environment {
 
-    private final Environment _enclosingScope;
+    private Environment _enclosingScope;
     private final HashMap<String, Object> variables = new HashMap<>();
 
     public Environment(){
@@ -19,14 +19,49 @@ public class Environment {
         _enclosingScope = enclosingScope;
     }
 
+    /**
+     * Empties the environment and hangs it under a new parent, for environments nothing can refer
+     * to any more once their scope has been left.
+     */
+    void reuse(Environment enclosingScope) {
+        variables.clear();
+        _enclosingScope = enclosingScope;
+    }
+
     public void declare(Token key, Object value) {
         variables.put(key.getLexeme(), value);
     }
 
+    /**
+     * Declares a variable that closures capture, so it lives in a cell they can share.
+     */
+    void declareCell(Token key, Object value) {
+        variables.put(key.getLexeme(), new Cell(value));
+    }
+
+    /**
+     * Adds a cell captured from another environment, for the environment holding a closure's upvalues.
+     */
+    void bindCell(String identifier, Cell cell) {
+        variables.put(identifier, cell);
+    }
+
+    Cell cellAt(int distance, String identifier) {
+        //the resolver declared every variable a closure captures in a cell
+        return (Cell) getAncestor(distance).variables.get(identifier);
+    }
+
+    /**
+     * Whether this scope itself declares the name, leaving the scopes around it out.
+     */
+    boolean declares(String identifier) {
+        return variables.containsKey(identifier);
+    }
+
     public Object get(Token name) {
         Object value = null;
         if(variables.containsKey(name.getLexeme())){
-            value =  variables.get(name.getLexeme());
+            value =  unwrap(variables.get(name.getLexeme()));
         } else if(_enclosingScope != null){
             value = _enclosingScope.get(name);
         } else {
@@ -47,10 +82,14 @@ public class Environment {
     }
 
     public Object getAt(int distance, Token token) {
+        return getAt(distance, token.getLexeme());
+    }
+
+    Object getAt(int distance, String identifier) {
         Environment envToUse = getAncestor(distance);
         //Here the environment is trusting that the resolver class
         //made sure the variable is there!. This is logical coupling :)
-        return  envToUse.variables.get(token.getLexeme());
+        return  unwrap(envToUse.variables.get(identifier));
     }
 
     public void assign(Token name, Object value) {
@@ -63,13 +102,25 @@ public class Environment {
                 );
             }
         } else {
-            variables.replace(name.getLexeme(), value);
+            store(name.getLexeme(), value);
         }
     }
 
     public void assignAt(int distance, Token name, Object value) {
-        Environment envToUse = getAncestor(distance);
-        envToUse.variables.put(name.getLexeme(), value);
+        getAncestor(distance).store(name.getLexeme(), value);
+    }
+
+    private void store(String identifier, Object value) {
+        Object slot = variables.get(identifier);
+        if(slot instanceof Cell) {
+            ((Cell) slot).value = value;
+        } else {
+            variables.put(identifier, value);
+        }
+    }
+
+    private static Object unwrap(Object slot) {
+        return slot instanceof Cell ? ((Cell) slot).value : slot;
     }
 
     private Environment getAncestor(int distance) {
@@ -84,8 +135,17 @@ public class Environment {
         variables.put(identifier, callable);
     }
 
+    public void define(String identifier, JavaObject object) {
+        variables.put(identifier, object);
+    }
+
     public void defineThis(LoxInstance instance)
     {
         variables.put("this", instance);
     }
+
+    public void defineSuper(LoxClass superclass)
+    {
+        variables.put("super", superclass);
+    }
 }
@@ -0,0 +1,120 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.BudgetExceededError;
+import com.craftinginterpreters.lox.Token;
+
+/**
+ * Limits how much work a single {@link Interpreter#interpret(java.util.List)} run is allowed to do.
+ * Steps are counted at loop back-edges and function calls, allocations whenever an instance or a
+ * closure is created. The hot path is a single counter decrement; step totals and the wall clock are
+ * only looked at when that counter runs out, which happens at most every {@link #CHECK_INTERVAL} steps.
+ */
+public class ExecutionBudget {
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private static final long CHECK_INTERVAL = 1024;
+
+    private final long maxSteps;
+    private final long maxAllocations;
+    private final long maxDurationNanos;
+    private final int maxCallDepth;
+
+    private long steps;
+    private long chunk;
+    private long stepsUntilCheck;
+    private long allocations;
+    private long deadline;
+    private int callDepth;
+
+    public ExecutionBudget(long maxSteps, long maxAllocations, long maxDurationMillis, int maxCallDepth) {
+        this.maxSteps = maxSteps;
+        this.maxAllocations = maxAllocations;
+        this.maxDurationNanos = maxDurationMillis == UNLIMITED
+                ? UNLIMITED
+                : maxDurationMillis * 1_000_000L;
+        this.maxCallDepth = maxCallDepth;
+        start();
+    }
+
+    public static ExecutionBudget unlimited() {
+        return new ExecutionBudget(UNLIMITED, UNLIMITED, UNLIMITED, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Resets the counters and starts the clock; called at the start of every run.
+     */
+    public void start() {
+        steps = 0;
+        allocations = 0;
+        callDepth = 0;
+        deadline = maxDurationNanos == UNLIMITED ? UNLIMITED : System.nanoTime() + maxDurationNanos;
+        chunk = Math.min(CHECK_INTERVAL, maxSteps);
+        stepsUntilCheck = chunk;
+    }
+
+    public long getSteps() {
+        return steps + chunk - stepsUntilCheck;
+    }
+
+    public long getAllocations() {
+        return allocations;
+    }
+
+    public int getCallDepth() {
+        return callDepth;
+    }
+
+    public void step(Token token) {
+        if(--stepsUntilCheck < 0) {
+            check(token);
+        }
+    }
+
+    public void enterCall(Token token) {
+        step(token);
+        if(++callDepth > maxCallDepth) {
+            throw new BudgetExceededError(token,
+                    String.format("Call depth exceeded the limit of %d.", maxCallDepth));
+        }
+    }
+
+    public void exitCall() {
+        if(callDepth > 0) {
+            callDepth--;
+        }
+    }
+
+    /**
+     * Sets the depth of the strand taking over and returns the one it replaces: a generator's
+     * calls count against its own depth, not against that of whoever resumed it.
+     */
+    int swapCallDepth(int depth) {
+        int previous = callDepth;
+        callDepth = depth;
+        return previous;
+    }
+
+    public void allocate(Token token) {
+        if(++allocations > maxAllocations) {
+            throw new BudgetExceededError(token,
+                    String.format("Allocation budget of %d objects exceeded.", maxAllocations));
+        }
+    }
+
+    private void check(Token token) {
+        //the current chunk is used up and the step that got us here is the first one of the next
+        steps += chunk;
+        chunk = 0;
+        stepsUntilCheck = -1;
+        if(steps >= maxSteps) {
+            throw new BudgetExceededError(token,
+                    String.format("Step budget of %d exceeded.", maxSteps));
+        }
+        if(deadline != UNLIMITED && System.nanoTime() - deadline > 0) {
+            throw new BudgetExceededError(token,
+                    String.format("Time budget of %d ms exceeded.", maxDurationNanos / 1_000_000L));
+        }
+        chunk = Math.min(CHECK_INTERVAL, maxSteps - steps);
+        stepsUntilCheck = chunk - 1;
+    }
+}
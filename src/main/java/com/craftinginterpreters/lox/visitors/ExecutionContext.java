@@ -0,0 +1,37 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.Expr;
+import com.craftinginterpreters.lox.Token;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The part of the interpreter's state that belongs to one strand of execution, the script itself or
+ * one of its generators. Handing control from one to the other swaps it with what the interpreter
+ * holds, so each carries on where it left off. See {@link Interpreter#switchContext}.
+ */
+final class ExecutionContext {
+    Environment environment;
+    CallStack callStack;
+    int callDepth;
+    //the generator running in this context, null for the script
+    LoxGenerator.Strand generator;
+    //loop and call state: two generators running the same loop each cache their own invariant calls
+    Map<Expr.Call, Object> invariantValues = new IdentityHashMap<>();
+    Interpreter.LoopState loopState = Interpreter.LoopState.None;
+    Token callSite;
+    LoxInstance calleeReceiver;
+    Object calleeTarget;
+
+    //nesting of the nodes MetricsVisitor is timing
+    long childNanos;
+    long[] outerChildNanos = new long[0];
+    int timingDepth;
+
+    ExecutionContext(Environment environment, LoxGenerator.Strand generator) {
+        this.environment = environment;
+        this.callStack = new CallStack();
+        this.generator = generator;
+    }
+}
@@ -0,0 +1,404 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.Expr;
+import com.craftinginterpreters.lox.Stmt;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluation counts and time per AST node and per function, collected by a {@link MetricsVisitor}
+ * wrapped around the interpreter. Node time is split into total (including child nodes) and self
+ * time; a function's time is the self time of the nodes that ran in its frames, which stays
+ * correct under recursion. {@link Expr.Get} sites also remember which classes they have seen so
+ * polymorphic property accesses can be spotted.
+ *
+ * Instances are counted per class as they are created. Every {@value #LIVE_SAMPLE}th one is also
+ * held weakly, so the samples the collector hasn't cleared yet give an estimate of how many are
+ * still alive and how many fields they carry.
+ *
+ * Counters are updated by the interpreter thread without locking, so JMX readers may see values
+ * that are a few evaluations behind.
+ */
+public class ExecutionMetrics implements ExecutionMetricsMXBean {
+    public static final String OBJECT_NAME = "com.craftinginterpreters.lox:type=ExecutionMetrics";
+
+    private static final int TOP = 20;
+    private static final String TOP_LEVEL = "<script>";
+    private static final int LIVE_SAMPLE = 16;
+
+    private final Map<Object, NodeStats> nodes = new IdentityHashMap<>();
+    private final Map<List<Stmt>, FunctionStats> functions = new IdentityHashMap<>();
+    private final FunctionStats topLevel = new FunctionStats(TOP_LEVEL, null);
+    private final Map<Expr.Get, Set<String>> receivers = new IdentityHashMap<>();
+    private final Map<MemoCache, String> caches = new LinkedHashMap<>();
+    private final Map<LoxClass, ClassStats> classes = new IdentityHashMap<>();
+
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if(server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+    }
+
+    /**
+     * Registers the MBean, only warning on stderr when that fails: the metrics are still collected
+     * and reported without it.
+     */
+    public void registerOrWarn() {
+        try {
+            register();
+        } catch (JMException e) {
+            System.err.println("Could not register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    void record(Object node, CallFrame frame, long totalNanos, long selfNanos) {
+        NodeStats stats = nodes.get(node);
+        if(stats == null) {
+            stats = register(node, frame);
+        }
+        stats.count++;
+        stats.totalNanos += totalNanos;
+        stats.selfNanos += selfNanos;
+        stats.function.selfNanos += selfNanos;
+    }
+
+    /**
+     * Counts a call of the function, as its frame is pushed or a tail call takes it over.
+     */
+    void recordCall(LoxFunction function) {
+        FunctionStats stats = functions.get(function.getDeclaration().getBody());
+        if(stats == null) {
+            stats = functionStats(function);
+        }
+        stats.calls++;
+    }
+
+    void recordReceiver(Expr.Get site, Object receiver) {
+        String type = receiver instanceof LoxInstance
+                ? ((LoxInstance) receiver).getKlass().getName()
+                : receiver == null ? "nil" : receiver.getClass().getSimpleName();
+        Set<String> seen = receivers.get(site);
+        if(seen == null) {
+            synchronized (this) {
+                seen = new LinkedHashSet<>();
+                receivers.put(site, seen);
+            }
+        }
+        if(!seen.contains(type)) {
+            synchronized (this) {
+                seen.add(type);
+            }
+        }
+    }
+
+    void recordAllocation(LoxInstance instance) {
+        ClassStats stats = classes.get(instance.getKlass());
+        if(stats == null) {
+            synchronized (this) {
+                stats = new ClassStats(instance.getKlass());
+                classes.put(instance.getKlass(), stats);
+            }
+        }
+        if(stats.allocated++ % LIVE_SAMPLE == 0) {
+            synchronized (this) {
+                stats.sample(instance);
+            }
+        }
+    }
+
+    synchronized void registerCache(String function, MemoCache cache) {
+        caches.put(cache, function);
+    }
+
+    //a node always runs in frames of the function that lexically contains it, so the frame that
+    //is current the first time it runs tells us who owns it
+    private synchronized NodeStats register(Object node, CallFrame frame) {
+        FunctionStats owner = frame == null ? topLevel : functionStats(frame.getFunction());
+        NodeStats stats = new NodeStats(describe(node), owner);
+        nodes.put(node, stats);
+        return stats;
+    }
+
+    private synchronized FunctionStats functionStats(LoxFunction function) {
+        Stmt.Function declaration = function.getDeclaration();
+        FunctionStats stats = functions.get(declaration.getBody());
+        if(stats == null) {
+            stats = new FunctionStats(function.getName(), declaration);
+            functions.put(declaration.getBody(), stats);
+        }
+        return stats;
+    }
+
+    @Override
+    public synchronized long getNodeEvaluations() {
+        long total = 0;
+        for(NodeStats stats : nodes.values()) {
+            total += stats.count;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized List<NodeMetric> getHotNodes() {
+        List<NodeStats> sorted = new ArrayList<>(nodes.values());
+        sorted.sort((a, b) -> Long.compare(b.selfNanos, a.selfNanos));
+        List<NodeMetric> hot = new ArrayList<>();
+        for(NodeStats stats : sorted.subList(0, Math.min(TOP, sorted.size()))) {
+            hot.add(new NodeMetric(stats.label, stats.count, millis(stats.totalNanos), millis(stats.selfNanos)));
+        }
+        return hot;
+    }
+
+    @Override
+    public synchronized List<FunctionMetric> getHotFunctions() {
+        List<FunctionStats> sorted = new ArrayList<>(functions.values());
+        sorted.add(topLevel);
+        sorted.sort((a, b) -> Long.compare(b.selfNanos, a.selfNanos));
+        List<FunctionMetric> hot = new ArrayList<>();
+        for(FunctionStats stats : sorted.subList(0, Math.min(TOP, sorted.size()))) {
+            hot.add(new FunctionMetric(stats.describe(), stats.calls, millis(stats.selfNanos)));
+        }
+        return hot;
+    }
+
+    @Override
+    public synchronized List<String> getPolymorphicSites() {
+        List<String> sites = new ArrayList<>();
+        for(Map.Entry<Expr.Get, Set<String>> entry : receivers.entrySet()) {
+            if(entry.getValue().size() > 1) {
+                Expr.Get site = entry.getKey();
+                sites.add(String.format("line %d .%s: %s",
+                        site.getMember().getLine(),
+                        site.getMember().getLexeme(),
+                        String.join(", ", entry.getValue())));
+            }
+        }
+        return sites;
+    }
+
+    @Override
+    public synchronized List<CacheMetric> getCaches() {
+        List<CacheMetric> metrics = new ArrayList<>();
+        for(Map.Entry<MemoCache, String> entry : caches.entrySet()) {
+            MemoCache cache = entry.getKey();
+            long lookups = cache.getHits() + cache.getMisses();
+            metrics.add(new CacheMetric(entry.getValue(), cache.getPolicy(), cache.getCapacity(), cache.size(),
+                    cache.getHits(), cache.getMisses(), cache.getEvictions(),
+                    lookups == 0 ? 0 : (double) cache.getHits() / lookups));
+        }
+        return metrics;
+    }
+
+    @Override
+    public synchronized List<ClassMetric> getClasses() {
+        List<ClassStats> sorted = new ArrayList<>(classes.values());
+        sorted.sort((a, b) -> Long.compare(b.allocated, a.allocated));
+        List<ClassMetric> metrics = new ArrayList<>();
+        for(ClassStats stats : sorted.subList(0, Math.min(TOP, sorted.size()))) {
+            stats.expunge();
+            long live = 0;
+            long fields = 0;
+            for(WeakReference<LoxInstance> sample : stats.samples) {
+                LoxInstance instance = sample.get();
+                if(instance != null) {
+                    live++;
+                    fields += instance.fieldCount();
+                }
+            }
+            //the first instance and every LIVE_SAMPLE-th after it were sampled, so scale by how many
+            //instances each sample actually stands for
+            long sampled = (stats.allocated + LIVE_SAMPLE - 1) / LIVE_SAMPLE;
+            long liveEstimate = sampled == 0 ? 0 : Math.round(live * (double) stats.allocated / sampled);
+            metrics.add(new ClassMetric(stats.klass.getName(), stats.allocated, liveEstimate,
+                    live == 0 ? 0 : (double) fields / live, stats.klass.hasLayout()));
+        }
+        return metrics;
+    }
+
+    @Override
+    public String getReport() {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        out.println("== Functions by self time ==");
+        out.printf("%10s %12s  %s%n", "calls", "self ms", "function");
+        for(FunctionMetric f : getHotFunctions()) {
+            out.printf("%10d %12.2f  %s%n", f.getCalls(), f.getSelfMillis(), f.getFunction());
+        }
+        out.println("== Nodes by self time ==");
+        out.printf("%10s %12s %12s  %s%n", "count", "self ms", "total ms", "node");
+        for(NodeMetric n : getHotNodes()) {
+            out.printf("%10d %12.2f %12.2f  %s%n", n.getCount(), n.getSelfMillis(), n.getTotalMillis(), n.getNode());
+        }
+        List<String> polymorphic = getPolymorphicSites();
+        if(!polymorphic.isEmpty()) {
+            out.println("== Polymorphic property sites ==");
+            for(String site : polymorphic) {
+                out.println(site);
+            }
+        }
+        List<CacheMetric> memoized = getCaches();
+        if(!memoized.isEmpty()) {
+            out.println("== Memoized functions ==");
+            out.printf("%10s %10s %10s %8s  %s%n", "hits", "misses", "evictions", "hit rate", "function");
+            for(CacheMetric c : memoized) {
+                out.printf("%10d %10d %10d %7.1f%%  %s (%s, %d/%d)%n", c.getHits(), c.getMisses(), c.getEvictions(),
+                        c.getHitRate() * 100, c.getFunction(), c.getPolicy(), c.getSize(), c.getCapacity());
+            }
+        }
+        List<ClassMetric> allocated = getClasses();
+        if(!allocated.isEmpty()) {
+            out.println("== Classes by allocations ==");
+            out.printf("%10s %10s %10s  %s%n", "allocated", "live ~", "fields", "class");
+            for(ClassMetric c : allocated) {
+                out.printf("%10d %10d %10.1f  %s%s%n", c.getAllocated(), c.getLiveEstimate(), c.getAverageFields(),
+                        c.getClassName(), c.isFixedLayout() ? " (fixed layout)" : "");
+            }
+        }
+        out.flush();
+        return text.toString();
+    }
+
+    @Override
+    public synchronized void reset() {
+        nodes.clear();
+        functions.clear();
+        receivers.clear();
+        classes.clear();
+        topLevel.calls = 0;
+        topLevel.selfNanos = 0;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static String describe(Object node) {
+        int line = line(node);
+        String kind = node instanceof Expr
+                ? ((Expr) node).getExprType().name().toLowerCase()
+                : node.getClass().getSimpleName().toLowerCase();
+        String detail = "";
+        if(node instanceof Expr.Binary) {
+            detail = " " + ((Expr.Binary) node).getOperator().getLexeme();
+        } else if(node instanceof Expr.Variable) {
+            detail = " " + ((Expr.Variable) node).getName().getLexeme();
+        } else if(node instanceof Expr.Assignment) {
+            detail = " " + ((Expr.Assignment) node).getIdentifier().getLexeme();
+        } else if(node instanceof Expr.Get) {
+            detail = " ." + ((Expr.Get) node).getMember().getLexeme();
+        } else if(node instanceof Expr.Set) {
+            detail = " ." + ((Expr.Set) node).getMember().getLexeme();
+        } else if(node instanceof Expr.Literal) {
+            detail = " " + ((Expr.Literal) node).getValue();
+        } else if(node instanceof Stmt.Function) {
+            detail = " " + ((Stmt.Function) node).getName().getLexeme();
+        } else if(node instanceof Stmt.Var) {
+            detail = " " + ((Stmt.Var) node).getName().getLexeme();
+        }
+        return (line < 0 ? "line ?" : "line " + line) + " " + kind + detail;
+    }
+
+    private static int line(Object node) {
+        if(node instanceof Expr.Unary) return ((Expr.Unary) node).getOperator().getLine();
+        if(node instanceof Expr.Binary) return ((Expr.Binary) node).getOperator().getLine();
+        if(node instanceof Expr.Grouping) return line(((Expr.Grouping) node).getExpression());
+        if(node instanceof Expr.Variable) return ((Expr.Variable) node).getName().getLine();
+        if(node instanceof Expr.Assignment) return ((Expr.Assignment) node).getIdentifier().getLine();
+        if(node instanceof Expr.Logical) return line(((Expr.Logical) node).getLeft());
+        if(node instanceof Expr.Call) return ((Expr.Call) node).getParen().getLine();
+        if(node instanceof Expr.Get) return ((Expr.Get) node).getMember().getLine();
+        if(node instanceof Expr.Set) return ((Expr.Set) node).getMember().getLine();
+        if(node instanceof Expr.This) return ((Expr.This) node).getKeyword().getLine();
+        if(node instanceof Expr.Array) return ((Expr.Array) node).getBracket().getLine();
+        if(node instanceof Expr.Index) return ((Expr.Index) node).getBracket().getLine();
+        if(node instanceof Expr.IndexSet) return ((Expr.IndexSet) node).getBracket().getLine();
+        if(node instanceof Expr.AnonymousFunction) return firstLine(((Expr.AnonymousFunction) node).getBody());
+        if(node instanceof Stmt.Expression) return line(((Stmt.Expression) node).getExpression());
+        if(node instanceof Stmt.Print) return line(((Stmt.Print) node).getExpression());
+        if(node instanceof Stmt.Var) return ((Stmt.Var) node).getName().getLine();
+        if(node instanceof Stmt.Block) return firstLine(((Stmt.Block) node).getStatements());
+        if(node instanceof Stmt.If) return line(((Stmt.If) node).getCondition());
+        if(node instanceof Stmt.While) return ((Stmt.While) node).getKeyword().getLine();
+        if(node instanceof Stmt.For) return ((Stmt.For) node).getKeyword().getLine();
+        if(node instanceof Stmt.Function) return ((Stmt.Function) node).getName().getLine();
+        if(node instanceof Stmt.Return) return ((Stmt.Return) node).getKeyword().getLine();
+        if(node instanceof Stmt.Class) return ((Stmt.Class) node).getName().getLine();
+        return -1;
+    }
+
+    private static int firstLine(List<Stmt> statements) {
+        return statements.isEmpty() ? -1 : line(statements.get(0));
+    }
+
+    private static class NodeStats {
+        final String label;
+        final FunctionStats function;
+        long count;
+        long totalNanos;
+        long selfNanos;
+
+        NodeStats(String label, FunctionStats function) {
+            this.label = label;
+            this.function = function;
+        }
+    }
+
+    private static class FunctionStats {
+        final String name;
+        final Stmt.Function declaration;
+        long calls;
+        long selfNanos;
+
+        FunctionStats(String name, Stmt.Function declaration) {
+            this.name = name;
+            this.declaration = declaration;
+        }
+
+        String describe() {
+            return declaration == null ? name : name + " (line " + declaration.getName().getLine() + ")";
+        }
+    }
+
+    private static class ClassStats {
+        final LoxClass klass;
+        long allocated;
+        //every LIVE_SAMPLE-th instance, until the collector clears it
+        final Set<WeakReference<LoxInstance>> samples = new HashSet<>();
+        final ReferenceQueue<LoxInstance> collected = new ReferenceQueue<>();
+
+        ClassStats(LoxClass klass) {
+            this.klass = klass;
+        }
+
+        void sample(LoxInstance instance) {
+            expunge();
+            samples.add(new WeakReference<>(instance, collected));
+        }
+
+        void expunge() {
+            Reference<? extends LoxInstance> cleared;
+            while((cleared = collected.poll()) != null) {
+                samples.remove(cleared);
+            }
+        }
+    }
+}
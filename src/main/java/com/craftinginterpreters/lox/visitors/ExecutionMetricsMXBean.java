@@ -0,0 +1,24 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link ExecutionMetrics}, registered under {@link ExecutionMetrics#OBJECT_NAME}.
+ */
+public interface ExecutionMetricsMXBean {
+    long getNodeEvaluations();
+
+    List<NodeMetric> getHotNodes();
+
+    List<FunctionMetric> getHotFunctions();
+
+    List<String> getPolymorphicSites();
+
+    List<CacheMetric> getCaches();
+
+    List<ClassMetric> getClasses();
+
+    String getReport();
+
+    void reset();
+}
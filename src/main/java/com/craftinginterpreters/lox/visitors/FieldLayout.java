@@ -0,0 +1,52 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.Symbols;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The fields a class declared with {@code layout(Class, [...])} is limited to. Its instances keep
+ * them in an array, one slot per field, found through the symbol of the field name instead of a
+ * hash map per instance.
+ */
+final class FieldLayout {
+    private final List<String> names;
+    //slot of each symbol from base on, -1 for the ones that are not fields
+    private final int base;
+    private final int[] slots;
+
+    FieldLayout(List<String> names) {
+        this.names = names;
+        int low = Integer.MAX_VALUE;
+        int high = 0;
+        for(String name : names) {
+            int symbol = Symbols.intern(name);
+            low = Math.min(low, symbol);
+            high = Math.max(high, symbol + 1);
+        }
+        base = names.isEmpty() ? 0 : low;
+        slots = new int[high - base];
+        Arrays.fill(slots, -1);
+        for(int i = 0; i < names.size(); i++) {
+            slots[Symbols.find(names.get(i)) - base] = i;
+        }
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    /**
+     * The slot of the field with this symbol, or -1 when the layout has no such field.
+     */
+    int slot(int symbol) {
+        int index = symbol - base;
+        return index >= 0 && index < slots.length ? slots[index] : -1;
+    }
+
+    @Override
+    public String toString() {
+        return names.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.RuntimeError;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The file natives, all going through NIO channels:
+ *
+ * {@code readFile(path)} reads a whole UTF-8 file into a string. {@code readLines(path)} streams
+ * one instead, as a {@link LineReader} with {@code hasNext()} and {@code next()}.
+ * {@code writeFile(path, text)} replaces a file with the text and returns the number of bytes
+ * written. {@code mapFile(path)} maps a file into memory as a {@link MappedFile}, for files too
+ * large to read.
+ *
+ * A relative path is resolved against the directory of the script, as an import's is, so a script
+ * finds the files next to it wherever it is run from; the REPL and embedders that set no script
+ * path resolve against the working directory.
+ */
+final class FileNatives {
+    private FileNatives() {
+    }
+
+    static void define(Environment globals) {
+        globals.define("readFile", new NativeFunction("readFile", 1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object path) {
+                Path file = path(interpreter, path);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    if(size > Integer.MAX_VALUE - 8) {
+                        throw new RuntimeError(interpreter.getCallSite(),
+                                "'" + file + "' is too large to read whole; use readLines or mapFile.");
+                    }
+                    ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                    while(buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                        //a file growing while it is read is cut at the size it had when opened
+                    }
+                    return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    throw failure(interpreter, "read", file, e);
+                }
+            }
+        });
+        globals.define("readLines", new NativeFunction("readLines", 1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object path) {
+                Path file = path(interpreter, path);
+                try {
+                    return new JavaObject(new LineReader(file, interpreter.openFiles()));
+                } catch (IOException e) {
+                    throw failure(interpreter, "read", file, e);
+                }
+            }
+        });
+        globals.define("writeFile", new NativeFunction("writeFile", 2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object path, Object text) {
+                Path file = path(interpreter, path);
+                ByteBuffer bytes = StandardCharsets.UTF_8.encode(Interpreter.stringify(text));
+                int size = bytes.remaining();
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    while(bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                } catch (IOException e) {
+                    throw failure(interpreter, "write", file, e);
+                }
+                return LoxValues.box(size);
+            }
+        });
+        globals.define("mapFile", new NativeFunction("mapFile", 1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object path) {
+                Path file = path(interpreter, path);
+                try {
+                    return new JavaObject(new MappedFile(file));
+                } catch (IOException e) {
+                    throw failure(interpreter, "map", file, e);
+                }
+            }
+        });
+    }
+
+    private static Path path(Interpreter interpreter, Object path) {
+        if(!LoxString.isString(path)) {
+            throw new RuntimeError(interpreter.getCallSite(), "File path must be a string.");
+        }
+        try {
+            return interpreter.getScriptDirectory().resolve(Paths.get(path.toString()));
+        } catch (InvalidPathException e) {
+            throw new RuntimeError(interpreter.getCallSite(), "Invalid file path '" + path + "'.");
+        }
+    }
+
+    private static RuntimeError failure(Interpreter interpreter, String action, Path file, IOException e) {
+        String reason = e instanceof NoSuchFileException ? "no such file" : e.getMessage();
+        return new RuntimeError(interpreter.getCallSite(), "Could not " + action + " '" + file + "': " + reason + ".");
+    }
+}
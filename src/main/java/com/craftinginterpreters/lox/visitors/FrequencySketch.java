@@ -0,0 +1,64 @@
+package com.craftinginterpreters.lox.visitors;
+
+/**
+ * Approximate access counts for W-TinyLFU: a count-min sketch of four rows of 4-bit counters
+ * (held in bytes). Once ten accesses per cache slot have been counted every counter is halved, so
+ * keys that were popular a long time ago fade out.
+ */
+final class FrequencySketch {
+    private static final int[] SEEDS = {0x97cb3127, 0xb40a9e35, 0xc2b2ae3d, 0x27d4eb2f};
+    private static final int MAX_COUNT = 15;
+
+    private final byte[][] rows = new byte[SEEDS.length][];
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int capacity) {
+        int width = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        for(int i = 0; i < rows.length; i++) {
+            rows[i] = new byte[width];
+        }
+        mask = width - 1;
+        sampleSize = 10 * Math.max(capacity, 16);
+    }
+
+    void increment(Object key) {
+        int hash = key.hashCode();
+        boolean added = false;
+        for(int i = 0; i < rows.length; i++) {
+            int index = index(hash, i);
+            if(rows[i][index] < MAX_COUNT) {
+                rows[i][index]++;
+                added = true;
+            }
+        }
+        if(added && ++additions == sampleSize) {
+            age();
+        }
+    }
+
+    int frequency(Object key) {
+        int hash = key.hashCode();
+        int frequency = MAX_COUNT;
+        for(int i = 0; i < rows.length; i++) {
+            frequency = Math.min(frequency, rows[i][index(hash, i)]);
+        }
+        return frequency;
+    }
+
+    private int index(int hash, int row) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 16;
+        return h & mask;
+    }
+
+    private void age() {
+        for(byte[] row : rows) {
+            for(int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+}
@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox.visitors;
+
+import lombok.Data;
+
+@Data
+public class FunctionMetric {
+    private final String function;
+    private final long calls;
+    private final double selfMillis;
+}
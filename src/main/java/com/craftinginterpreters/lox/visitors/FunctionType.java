@@ -5,5 +5,7 @@ public enum FunctionType {
     NAMED,
     ANONYMOUS,
     METHOD,
-    INITIALIZER
+    INITIALIZER,
+    STATIC,
+    MODULE
 }
@@ -2,53 +2,382 @@ package com.craftinginterpreters.lox.visitors;
 
 import com.craftinginterpreters.lox.*;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
+    private static final Expr.Literal ALWAYS_TRUE = new Expr.Literal(true);
+    //stands in for a nil result in the invariant call cache
+    private static final Object NIL = new Object();
+    private static final int ENVIRONMENT_POOL_SIZE = 256;
+    //generators started and not yet finished, each holding a strand thread
+    static final int MAX_STRANDS = 1024;
+
     private Environment environment = new Environment();
     private final Environment globals = environment;
 
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    private final Map<Expr, Integer> locals = new IdentityHashMap<>();
+    private final Set<Expr.Call> tailCalls = Collections.newSetFromMap(new IdentityHashMap<>());
+    //declarations some closure captures, and what each function captures, keyed by its body
+    private final Set<Token> capturedDeclarations = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<List<Stmt>, Upvalue[]> upvalues = new IdentityHashMap<>();
+    //the closure of every function that captures nothing
+    private final Environment noUpvalues = new Environment();
+    private final Set<Stmt.Function> pureFunctions = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<Stmt, List<Expr.Call>> loopInvariantCalls = new IdentityHashMap<>();
+    private final Set<Expr.Call> invariantCalls = Collections.newSetFromMap(new IdentityHashMap<>());
+    //results of invariant calls made during the current activation of their loop, per strand
+    private Map<Expr.Call, Object> invariantValues = new IdentityHashMap<>();
+    private final Map<Stmt.For, CountedLoop> countedLoops = new IdentityHashMap<>();
+    private final Set<Stmt.Block> inlineBlocks = Collections.newSetFromMap(new IdentityHashMap<>());
+    //bodies of the functions that yield
+    private final Set<List<Stmt>> generators = Collections.newSetFromMap(new IdentityHashMap<>());
+    //modules by absolute path, and the module each import statement binds
+    private final Map<Path, LoxModule> modules = new HashMap<>();
+    private final Map<Stmt.Import, LoxModule> imports = new IdentityHashMap<>();
+    private Path scriptDirectory = Paths.get("");
+    //strands of generators the script dropped before they finished, still parked in a yield
+    private final ReferenceQueue<LoxGenerator> droppedGenerators = new ReferenceQueue<>();
+    //readers readLines opened that have been neither read to the end nor closed
+    private final Set<Closeable> openFiles = Collections.newSetFromMap(new IdentityHashMap<>());
+    //threads generator bodies run on, kept a while after a body finishes for the next one to reuse
+    private ThreadPoolExecutor strandThreads;
+    private long stackSize;
+    private int strandLimit = MAX_STRANDS;
+    private final AtomicInteger liveStrands = new AtomicInteger();
+    //environments of finished scopes, ready for reuse: closures capture cells, never environments
+    private final ArrayList<Environment> environmentPool = new ArrayList<>();
+    private Map<Stmt.Function, MemoCache> pureCaches;
+    private int pureCacheCapacity;
 
     public Interpreter(){
-        globals.define("clock", new LoxCallable() {
+        globals.define("clock", new NativeFunction("clock", 0) {
             @Override
-            public int arity() {
-                return 0;
+            public Object call0(Interpreter interpreter) {
+                return (double)System.currentTimeMillis() / 1000.0;
             }
-
+        });
+        globals.define("Array", new NativeFunction("Array", 1) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
+            public Object call1(Interpreter interpreter, Object length) {
+                if(!(length instanceof Double) || (double) length < 0 || (double) length != Math.floor((double) length)) {
+                    throw new RuntimeError(interpreter.getCallSite(), "Array length must be a non-negative integer.");
+                }
+                //checked before the cast, which would wrap or clamp, and before allocating what cannot fit
+                if((double) length > LoxArray.maxLength()) {
+                    throw new RuntimeError(interpreter.getCallSite(), "Array length " + LoxValues.toString((double) length) +
+                            " is more than the " + LoxArray.maxLength() + " elements the heap can hold.");
+                }
+                interpreter.budget.allocate(interpreter.getCallSite());
+                int size = (int) (double) length;
+                LoxArray array = new LoxArray(size);
+                for(int i = 0; i < size; i++) {
+                    array.add(0.0);
+                }
+                return array;
             }
-
+        });
+        globals.define("memoize", new Memoize(false));
+        globals.define("memoizeLfu", new Memoize(true));
+        globals.define("layout", new Layout());
+        globals.define("Map", new NativeFunction("Map", 0) {
             @Override
-            public String toString() { return "<native fn>"; }
+            public Object call0(Interpreter interpreter) {
+                interpreter.budget.allocate(interpreter.getCallSite());
+                return new LoxMap();
+            }
         });
+        FileNatives.define(globals);
     }
     private LoopState loopState = LoopState.None;
+    private ExecutionBudget budget = ExecutionBudget.unlimited();
+    private CallStack callStack = new CallStack();
+    //the generator whose body is running, null while the script itself runs
+    private LoxGenerator.Strand generator;
+    private final TailCall pendingTailCall = new TailCall();
+    private final ReturnException tailCallSignal = new ReturnException(pendingTailCall);
+    private SamplingProfiler profiler;
+    private Token callSite;
+    //the instance a method evaluateCallee returned is to run on; read straight after the call
+    private LoxInstance calleeReceiver;
+    //the Java object a JavaMethod evaluateCallee returned is to run on, read the same way
+    private Object calleeTarget;
+    private ExecutionMetrics metrics;
+    private OutputSink output = BufferedOutputSink.stdout();
+
+    //every node is dispatched through these so metrics can wrap the interpreter without it paying
+    //anything when they are off
+    private ExprVisitor<Object> exprVisitor = this;
+    private StmtVisitor<Void> stmtVisitor = this;
 
     public Environment getGlobals() {
         return  globals;
     }
+
+    /**
+     * Makes a public static Java method callable from scripts as the global {@code name}.
+     */
+    public void defineNative(String name, Method method) {
+        globals.define(name, JavaStaticFunction.of(method));
+    }
+
+    /**
+     * Hands a Java object to scripts as the global {@code name}; see {@link JavaObject}.
+     */
+    public void defineObject(String name, Object object) {
+        globals.define(name, new JavaObject(object));
+    }
+
+    /**
+     * The file the script was read from, which the paths of its imports and of the file natives
+     * are relative to. Without one they are relative to the working directory.
+     */
+    public void setScriptPath(Path script) {
+        scriptDirectory = script.toAbsolutePath().getParent();
+    }
+
+    Path getScriptDirectory() {
+        return scriptDirectory;
+    }
+
+    /**
+     * The stack size, in bytes, of the threads generator bodies run on, so they recurse as deep as
+     * the script itself; 0 leaves it to the JVM.
+     */
+    public void setStackSize(long stackSize) {
+        this.stackSize = stackSize;
+    }
+
+    void setStrandLimit(int strandLimit) {
+        this.strandLimit = strandLimit;
+    }
+
+    public ExecutionBudget getBudget() {
+        return budget;
+    }
+
+    public void setBudget(ExecutionBudget budget) {
+        this.budget = budget;
+    }
+
+    public CallStack getCallStack() {
+        return callStack;
+    }
+
+    public SamplingProfiler getProfiler() {
+        return profiler;
+    }
+
+    public void setProfiler(SamplingProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public OutputSink getOutput() {
+        return output;
+    }
+
+    public void setOutput(OutputSink output) {
+        this.output.flush();
+        this.output = output;
+    }
+
+    /**
+     * Caches the results of every function the resolver found pure, up to {@code capacity} per
+     * function; 0 turns it off.
+     */
+    public void setPureCacheCapacity(int capacity) {
+        pureCacheCapacity = capacity;
+        pureCaches = capacity > 0 ? new IdentityHashMap<>() : null;
+    }
+
+    public ExecutionMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(ExecutionMetrics metrics) {
+        this.metrics = metrics;
+        if(metrics == null) {
+            exprVisitor = this;
+            stmtVisitor = this;
+        } else {
+            MetricsVisitor visitor = new MetricsVisitor(this, metrics);
+            exprVisitor = visitor;
+            stmtVisitor = visitor;
+        }
+    }
+
+    int getCallLine() {
+        return callSite == null ? 0 : callSite.getLine();
+    }
+
+    /**
+     * The parenthesis of the call being made, so natives can report errors against it.
+     */
+    Token getCallSite() {
+        return callSite;
+    }
+
+    /**
+     * Called at loop back-edges and function entry, the points where a long running script is
+     * guaranteed to pass through. Budgets are charged separately by the callers.
+     */
+    void safepoint(Token token) {
+        if(profiler != null && profiler.isSampleDue()) {
+            profiler.sample(callStack, token.getLine());
+        }
+    }
+
+    /**
+     * Hands the interpreter to another strand: the state in the context becomes current and the
+     * state it replaces is left in the context, so calling this again switches back.
+     */
+    void switchContext(ExecutionContext context) {
+        Environment environment = this.environment;
+        this.environment = context.environment;
+        context.environment = environment;
+        CallStack callStack = this.callStack;
+        this.callStack = context.callStack;
+        context.callStack = callStack;
+        LoxGenerator.Strand generator = this.generator;
+        this.generator = context.generator;
+        context.generator = generator;
+        Map<Expr.Call, Object> invariantValues = this.invariantValues;
+        this.invariantValues = context.invariantValues;
+        context.invariantValues = invariantValues;
+        LoopState loopState = this.loopState;
+        this.loopState = context.loopState;
+        context.loopState = loopState;
+        Token callSite = this.callSite;
+        this.callSite = context.callSite;
+        context.callSite = callSite;
+        LoxInstance calleeReceiver = this.calleeReceiver;
+        this.calleeReceiver = context.calleeReceiver;
+        context.calleeReceiver = calleeReceiver;
+        Object calleeTarget = this.calleeTarget;
+        this.calleeTarget = context.calleeTarget;
+        context.calleeTarget = calleeTarget;
+        context.callDepth = budget.swapCallDepth(context.callDepth);
+        if(metrics != null) {
+            ((MetricsVisitor) stmtVisitor).switchContext(context);
+        }
+    }
+
+    /**
+     * Starts a generator body on an idle strand thread, or on a new one when all are busy. A thread
+     * waits a minute for another body before it ends, so short generators made one after another
+     * share a few threads instead of starting one each.
+     *
+     * At most {@link #MAX_STRANDS} bodies run or wait in a yield at once, and the pool never has
+     * more threads than that. Past the limit, the generators the script dropped are closed to free
+     * their threads, and if that frees none the script gets an error at {@code token} rather than
+     * the JVM running out of threads. A body started just as another ends waits in the queue for
+     * that thread.
+     */
+    void startStrand(Runnable body, Token token) {
+        if(strandThreads == null) {
+            strandThreads = new ThreadPoolExecutor(strandLimit, strandLimit, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(null, runnable, "lox-generator", stackSize);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            strandThreads.allowCoreThreadTimeOut(true);
+        }
+        if(liveStrands.get() >= strandLimit) {
+            closeDroppedGenerators();
+        }
+        if(liveStrands.get() >= strandLimit) {
+            throw tooManyStrands(token);
+        }
+        liveStrands.incrementAndGet();
+        try {
+            strandThreads.execute(body);
+        } catch (OutOfMemoryError e) {
+            liveStrands.decrementAndGet();
+            throw tooManyStrands(token);
+        }
+    }
+
+    /**
+     * Called by a generator body as its last step, on its own thread.
+     */
+    void endStrand() {
+        liveStrands.decrementAndGet();
+    }
+
+    private RuntimeError tooManyStrands(Token token) {
+        return new RuntimeError(token, "Too many generators are suspended at once; at most " +
+                strandLimit + " can be, and the system may allow fewer.");
+    }
+
+    Set<Closeable> openFiles() {
+        return openFiles;
+    }
+
+    /**
+     * Closes the files the script opened and left open, once it has finished: a REPL session
+     * keeps them from one line to the next.
+     */
+    public void closeFiles() {
+        for(Closeable file : new ArrayList<>(openFiles)) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                //nothing is left to read from it either way
+            }
+        }
+        openFiles.clear();
+    }
+
+    ReferenceQueue<LoxGenerator> droppedGenerators() {
+        return droppedGenerators;
+    }
+
+    /**
+     * Unwinds the bodies of generators that are no longer reachable, so their threads end and
+     * their environments go back to the pool.
+     */
+    void closeDroppedGenerators() {
+        Reference<? extends LoxGenerator> dropped;
+        while((dropped = droppedGenerators.poll()) != null) {
+            ((LoxGenerator.Strand) dropped).close();
+        }
+    }
+
     public void interpret(List<Stmt> statements) {
+        budget.start();
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
+            //keep what the script printed ahead of the error report
+            output.flush();
             Lox.runtimeError(error);
+        } finally {
+            closeDroppedGenerators();
+            output.flush();
         }
     }
 
     void execute(Stmt stmt){
-        stmt.accept(this);
+        stmt.accept(stmtVisitor);
     }
 
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.getExpression());
-        System.out.println(stringify(value));
+        output.println(stringify(value));
         return null;
     }
     @Override
@@ -63,16 +392,65 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
         Object value = expr == null
                 ? UnassignedValue.Value
                 : evaluate(expr);
-        environment.declare(statement.getName(), value);
+        declare(environment, statement.getName(), value);
         return  null;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.getStatements(), new Environment(environment));
+        if(!inlineBlocks.isEmpty() && inlineBlocks.contains(stmt)) {
+            executeBlock(stmt.getStatements(), environment);
+            return null;
+        }
+        Environment scope = acquireEnvironment(environment);
+        try {
+            executeBlock(stmt.getStatements(), scope);
+        } finally {
+            releaseEnvironment(scope);
+        }
         return null;
     }
 
+    void declare(Environment scope, Token name, Object value) {
+        if(!capturedDeclarations.isEmpty() && capturedDeclarations.contains(name)) {
+            scope.declareCell(name, value);
+        } else {
+            scope.declare(name, value);
+        }
+    }
+
+    /**
+     * The closure of a function created now: a fresh environment holding the cells of just the
+     * variables it captures, so it keeps nothing else of the scopes around it alive.
+     */
+    private Environment captureUpvalues(List<Stmt> body) {
+        Upvalue[] captured = upvalues.isEmpty() ? null : upvalues.get(body);
+        if(captured == null) {
+            return noUpvalues;
+        }
+        Environment closure = new Environment();
+        for(Upvalue upvalue : captured) {
+            closure.bindCell(upvalue.name, environment.cellAt(upvalue.distance, upvalue.name));
+        }
+        return closure;
+    }
+
+    Environment acquireEnvironment(Environment enclosing) {
+        int size = environmentPool.size();
+        if(size == 0) {
+            return new Environment(enclosing);
+        }
+        Environment scope = environmentPool.remove(size - 1);
+        scope.reuse(enclosing);
+        return scope;
+    }
+
+    void releaseEnvironment(Environment scope) {
+        if(environmentPool.size() < ENVIRONMENT_POOL_SIZE) {
+            environmentPool.add(scope);
+        }
+    }
+
     public Void visitIfStmt(Stmt.If stmt){
         Object cond = evaluate(stmt.getCondition());
         if(isTruthy(cond)){
@@ -100,15 +478,19 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
     }
 
     public void interpret(Expr expression) {
+        budget.start();
         try {
             Object value = evaluate(expression);
-            System.out.println(stringify(value));
+            output.println(stringify(value));
         } catch (RuntimeError error) {
+            output.flush();
             Lox.runtimeError(error);
+        } finally {
+            output.flush();
         }
     }
-    private Object evaluate(Expr expr) {
-        return expr.accept(this);
+    Object evaluate(Expr expr) {
+        return expr.accept(exprVisitor);
     }
 
     @Override
@@ -131,10 +513,10 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
         Object right = evaluate(expr.getOperand());
         if (Objects.requireNonNull(expr.getOperator().getType()) == TokenType.MINUS) {
             checkNumberOperand(expr.getOperator(), right);
-            return -((double)right);
+            return LoxValues.box(-((double)right));
         }
         else if(expr.getOperator().getType() == TokenType.BANG){
-            return !isTruthy(right);
+            return LoxValues.bool(!isTruthy(right));
         }
         return null;
     }
@@ -150,10 +532,10 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
         Object right = evaluate(expr.getRight());
         TokenType type = expr.getOperator().getType();
         if(type == TokenType.EQUAL_EQUAL){
-            return isEqual(left, right);
+            return LoxValues.bool(isEqual(left, right));
         }
         if(type == TokenType.BANG_EQUAL) {
-            return !isEqual(left, right);
+            return LoxValues.bool(!isEqual(left, right));
         }
         boolean isMath = left instanceof Double && right instanceof Double;
         if(isMath)
@@ -163,32 +545,32 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
             switch (type)
             {
                 case PLUS:
-                    return l + r;
+                    return LoxValues.box(l + r);
                 case MINUS:
-                    return  l - r;
+                    return LoxValues.box(l - r);
                 case STAR:
-                    return l * r;
+                    return LoxValues.box(l * r);
                 case SLASH:
-                    return l / r;
+                    return LoxValues.box(l / r);
                 case PERCENT:
-                    return l % r;
+                    return LoxValues.box(l % r);
                 case LESS:
-                    return l < r;
+                    return LoxValues.bool(l < r);
                 case LESS_EQUAL:
-                    return l <= r;
+                    return LoxValues.bool(l <= r);
                 case GREATER:
-                    return l > r;
+                    return LoxValues.bool(l > r);
                 case GREATER_EQUAL:
-                    return l >= r;
+                    return LoxValues.bool(l >= r);
                 default:
                     return  null;
             }
         }
 
-        boolean isConcat = left instanceof String;
+        boolean isConcat = LoxString.isString(left);
         if(isConcat && type == TokenType.PLUS)
         {
-            return ((String)left) + right.toString();
+            return LoxString.concat(left, right instanceof CharSequence ? (CharSequence) right : stringify(right));
         }
 
         throw new RuntimeError(expr.getOperator(),
@@ -205,7 +587,6 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
         } else {
             globals.assign(expr.getIdentifier(), value);
         }
-        environment.assign(expr.getIdentifier(), value);
         return value;
     }
 
@@ -229,13 +610,26 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.getOperand());
+        return getMember(expr, evaluate(expr.getOperand()));
+    }
+
+    Object getMember(Expr.Get expr, Object object) {
         if(object instanceof LoxInstance){
             LoxInstance loxInstance = (LoxInstance) object;
-            return loxInstance.get(expr.getMember());
+            return loxInstance.get(this, expr.getMember(), expr.getSymbol());
         } else if(object instanceof  LoxClass) {
             LoxClass c = (LoxClass) object;
-            return  c.findMethod(expr.getMember().getLexeme());
+            return  c.getStatic(this, expr.getMember(), expr.getSymbol());
+        } else if(object instanceof LoxArray) {
+            return ((LoxArray) object).getMember(expr.getMember());
+        } else if(object instanceof LoxMap) {
+            return ((LoxMap) object).getMember(expr.getMember());
+        } else if(object instanceof JavaObject) {
+            return ((JavaObject) object).get(expr.getMember());
+        } else if(object instanceof LoxGenerator) {
+            return ((LoxGenerator) object).getMember(expr.getMember());
+        } else if(object instanceof LoxModule) {
+            return ((LoxModule) object).get(this, expr.getMember());
         }
         throw new RuntimeError(expr.getMember(), "Only instances have properties.");
     }
@@ -246,19 +640,87 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
         if(object instanceof LoxInstance){
             LoxInstance loxInstance = (LoxInstance) object;
             Object value = evaluate(expr.getValue());
-            return loxInstance.set(expr.getMember(), value);
+            return loxInstance.set(this, expr.getMember(), expr.getSymbol(), value);
+        } else if(object instanceof LoxClass) {
+            return ((LoxClass) object).setStatic(this, expr.getMember(), expr.getSymbol(), evaluate(expr.getValue()));
+        } else if(object instanceof JavaObject) {
+            return ((JavaObject) object).set(expr.getMember(), evaluate(expr.getValue()));
         }
         throw new RuntimeError(expr.getMember(), "Only instances have properties.");
     }
 
+    @Override
+    public Object visitArrayExpr(Expr.Array expr) {
+        LoxArray array = new LoxArray(expr.getElements().size());
+        for(Expr element : expr.getElements()) {
+            array.add(evaluate(element));
+        }
+        budget.allocate(expr.getBracket());
+        return array;
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        Object operand = evaluate(expr.getOperand());
+        Object index = evaluate(expr.getIndex());
+        if(operand instanceof LoxArray) {
+            return ((LoxArray) operand).get(expr.getBracket(), index);
+        } else if(operand instanceof LoxMap) {
+            return ((LoxMap) operand).get(index);
+        }
+        throw new RuntimeError(expr.getBracket(), "Only arrays and maps can be indexed.");
+    }
+
+    @Override
+    public Object visitIndexSetExpr(Expr.IndexSet expr) {
+        Object operand = evaluate(expr.getOperand());
+        Object index = evaluate(expr.getIndex());
+        if(operand instanceof LoxArray) {
+            Object value = evaluate(expr.getValue());
+            ((LoxArray) operand).set(expr.getBracket(), index, value);
+            return value;
+        } else if(operand instanceof LoxMap) {
+            Object value = evaluate(expr.getValue());
+            ((LoxMap) operand).set(index, value);
+            return value;
+        }
+        throw new RuntimeError(expr.getBracket(), "Only arrays and maps can be indexed.");
+    }
+
     @Override
     public Object visitThisExpr(Expr.This expr) {
         return lookupVariable(expr.getKeyword(), expr);
     }
 
+    @Override
+    public Object visitSuperExpr(Expr.Super expr) {
+        LoxClass superclass = superclass(expr);
+        int symbol = expr.getSymbol();
+        LoxProperty property = superclass.findProperty(symbol);
+        if(property != null) {
+            return property.get(this, superReceiver(expr), expr.getMethod());
+        }
+        LoxFunction method = superclass.findMethod(symbol);
+        if(method == null) {
+            throw new RuntimeError(expr.getMethod(), "Undefined property '" + expr.getMethod().getLexeme() + "'.");
+        }
+        return method.bind(superReceiver(expr));
+    }
+
+    private LoxClass superclass(Expr.Super expr) {
+        return (LoxClass) environment.getAt(locals.get(expr), expr.getKeyword());
+    }
+
+    private LoxInstance superReceiver(Expr.Super expr) {
+        //a method's frame holds 'super' next to 'this'
+        return (LoxInstance) environment.getAt(locals.get(expr), "this");
+    }
+
     @Override
     public Void visitWhileStmt(Stmt.While statement) {
         return  Loop(
+                statement,
+                statement.getKeyword(),
                 null,
                 statement.getCondition(),
                 null,
@@ -268,39 +730,212 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
 
     @Override
     public Void visitForStmt(Stmt.For statement) {
+        CountedLoop counted = countedLoops.isEmpty() ? null : countedLoops.get(statement);
+        if(counted != null) {
+            return countedLoop(statement, counted);
+        }
         return  Loop(
+                statement,
+                statement.getKeyword(),
                 statement.getInitializer(),
-                statement.getCondition() == null ? new Expr.Literal(true) : statement.getCondition(),
+                statement.getCondition() == null ? ALWAYS_TRUE : statement.getCondition(),
                 statement.getIncrement(),
                 statement.getBody()
                 );
     }
 
-    Void Loop(Stmt initializer, Expr condition, Expr increment, Stmt body){
+    Void Loop(Stmt loop, Token keyword, Stmt initializer, Expr condition, Expr increment, Stmt body){
         Environment prevScope = this.environment;
+        List<Expr.Call> invariants = loopInvariantCalls.isEmpty() ? null : loopInvariantCalls.get(loop);
+        //a recursive call may run this loop again while it is active, so keep the outer results
+        Object[] outerValues = invariants == null ? null : enterInvariants(invariants);
+        Environment scope = initializer != null ? acquireEnvironment(prevScope) : null;
         try {
             if (initializer != null) {
-                this.environment = new Environment(prevScope);
+                this.environment = scope;
                 execute(initializer);
             }
+            return runLoop(keyword, condition, increment, body);
+        } finally {
+            this.environment = prevScope;
+            if(scope != null) {
+                releaseEnvironment(scope);
+            }
+            if(invariants != null) {
+                exitInvariants(invariants, outerValues);
+            }
+        }
+    }
+
+    private Void runLoop(Token keyword, Expr condition, Expr increment, Stmt body) {
+        Object result = evaluate(condition);
 
-            Object result = evaluate(condition);
+        while (isTruthy(result)) {
+            execute(body);
+            LoopState current = loopState;
+            loopState = LoopState.None;
+            if (current == LoopState.Break) {
+                break;
+            }
+            if (increment != null) {
+                evaluate(increment);
+            }
+            //back-edge: the only place a loop can spin forever without calling anything
+            budget.step(keyword);
+            safepoint(keyword);
+            result = evaluate(condition);
+        }
+        return null;
+    }
 
-            while (isTruthy(result)) {
+    private Void countedLoop(Stmt.For loop, CountedLoop counted) {
+        Environment prevScope = this.environment;
+        List<Expr.Call> invariants = loopInvariantCalls.isEmpty() ? null : loopInvariantCalls.get(loop);
+        Object[] outerValues = invariants == null ? null : enterInvariants(invariants);
+        Environment scope = acquireEnvironment(prevScope);
+        try {
+            this.environment = scope;
+            execute(loop.getInitializer());
+            Object start = environment.getAt(0, counted.variable);
+            Object limit = evaluate(counted.limit);
+            if(!(start instanceof Double) || !(limit instanceof Double)) {
+                //not numbers after all: let the ordinary loop compare them and report errors
+                return runLoop(loop.getKeyword(), loop.getCondition(), loop.getIncrement(), loop.getBody());
+            }
+            double counter = (double) start;
+            double end = (double) limit;
+            Token keyword = loop.getKeyword();
+            Stmt body = loop.getBody();
+            while (counted.test(counter, end)) {
                 execute(body);
                 LoopState current = loopState;
                 loopState = LoopState.None;
                 if (current == LoopState.Break) {
                     break;
                 }
-                if (increment != null) {
-                    evaluate(increment);
+                counter += counted.step;
+                if(counted.bodyReadsCounter) {
+                    environment.assignAt(0, counted.variable, LoxValues.box(counter));
+                }
+                budget.step(keyword);
+                safepoint(keyword);
+            }
+            return null;
+        } finally {
+            this.environment = prevScope;
+            releaseEnvironment(scope);
+            if(invariants != null) {
+                exitInvariants(invariants, outerValues);
+            }
+        }
+    }
+
+    @Override
+    public Void visitForInStmt(Stmt.ForIn statement) {
+        Iterator<?> iterator = iterator(statement.getKeyword(), evaluate(statement.getIterable()));
+        Environment prevScope = this.environment;
+        List<Expr.Call> invariants = loopInvariantCalls.isEmpty() ? null : loopInvariantCalls.get(statement);
+        Object[] outerValues = invariants == null ? null : enterInvariants(invariants);
+        Environment scope = acquireEnvironment(prevScope);
+        try {
+            this.environment = scope;
+            Token keyword = statement.getKeyword();
+            Stmt body = statement.getBody();
+            //elements are taken one at a time, as the body asks for them
+            while (iterator.hasNext()) {
+                //declared afresh, so a closure made in the body keeps the element of its iteration
+                declare(scope, statement.getName(), iterator.next());
+                execute(body);
+                LoopState current = loopState;
+                loopState = LoopState.None;
+                if (current == LoopState.Break) {
+                    break;
                 }
-                result = evaluate(condition);
+                budget.step(keyword);
+                safepoint(keyword);
             }
             return null;
         } finally {
             this.environment = prevScope;
+            releaseEnvironment(scope);
+            if(invariants != null) {
+                exitInvariants(invariants, outerValues);
+            }
+        }
+    }
+
+    /**
+     * What for-in walks: the elements of an array, read by index as the loop goes, the keys a map
+     * has when the loop starts, or the values of a generator or of a Java iterator or iterable.
+     */
+    private Iterator<?> iterator(Token keyword, Object iterable) {
+        if(iterable instanceof LoxGenerator) {
+            return (LoxGenerator) iterable;
+        }
+        if(iterable instanceof LoxArray) {
+            LoxArray array = (LoxArray) iterable;
+            return new Iterator<Object>() {
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    return index < array.size();
+                }
+
+                @Override
+                public Object next() {
+                    return array.get(index++);
+                }
+            };
+        }
+        if(iterable instanceof LoxMap) {
+            return iterator(keyword, ((LoxMap) iterable).keys());
+        }
+        Object target = iterable instanceof JavaObject ? ((JavaObject) iterable).getTarget() : null;
+        if(target instanceof Iterable) {
+            target = ((Iterable<?>) target).iterator();
+        }
+        if(target instanceof Iterator) {
+            Iterator<?> values = (Iterator<?>) target;
+            //what the Java side throws, such as a LineReader failing to read, is reported at the loop
+            return new Iterator<Object>() {
+                @Override
+                public boolean hasNext() {
+                    try {
+                        return values.hasNext();
+                    } catch (RuntimeException e) {
+                        throw JavaConversions.failure(keyword, e);
+                    }
+                }
+
+                @Override
+                public Object next() {
+                    try {
+                        return JavaConversions.toLox(values.next());
+                    } catch (RuntimeException e) {
+                        throw JavaConversions.failure(keyword, e);
+                    }
+                }
+            };
+        }
+        throw new RuntimeError(keyword, "Can only iterate over arrays, maps, generators and Java iterators.");
+    }
+
+    private Object[] enterInvariants(List<Expr.Call> calls) {
+        Object[] outer = new Object[calls.size()];
+        for(int i = 0; i < outer.length; i++) {
+            outer[i] = invariantValues.remove(calls.get(i));
+        }
+        return outer;
+    }
+
+    private void exitInvariants(List<Expr.Call> calls, Object[] outer) {
+        for(int i = 0; i < outer.length; i++) {
+            if(outer[i] == null) {
+                invariantValues.remove(calls.get(i));
+            } else {
+                invariantValues.put(calls.get(i), outer[i]);
+            }
         }
     }
 
@@ -316,47 +951,219 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.getCallee());
+        Object cached = null;
+        boolean invariant = !invariantCalls.isEmpty() && invariantCalls.contains(expr);
+        if(invariant && (cached = invariantValues.get(expr)) != null) {
+            return cached == NIL ? null : cached;
+        }
+        Object callee = evaluateCallee(expr);
+        LoxInstance receiver = calleeReceiver;
+        if(callee instanceof JavaMethod) {
+            return callJava(expr, (JavaMethod) callee, calleeTarget);
+        }
+        if(receiver == null && !(callee instanceof LoxFunction) && expr.getArguments().size() <= 3) {
+            return callDirect(expr, callee);
+        }
+        List<Object> args = evaluateArguments(expr);
+        LoxCallable function = prepareCall(expr, callee, args.size());
+        callSite = expr.getParen();
+        if(receiver != null) {
+            return ((LoxFunction) function).call(this, receiver, args);
+        }
+        if(!(function instanceof LoxFunction) || !pureFunctions.contains(((LoxFunction) function).getDeclaration())) {
+            return function.call(this, args);
+        }
+        Object result = pureCaches == null
+                ? function.call(this, args)
+                : MemoizedFunction.call(pureCache((LoxFunction) function), function, this, args);
+        if(invariant) {
+            invariantValues.put(expr, result == null ? NIL : result);
+        }
+        return result;
+    }
+
+    /**
+     * What a call calls. For {@code obj.method(...)} and {@code super.method(...)} that is the
+     * method itself, with the instance left in calleeReceiver, so no bound method is made. A method
+     * of a Java object is looked up by the number of arguments, with the object left in
+     * calleeTarget.
+     */
+    private Object evaluateCallee(Expr.Call call) {
+        Expr callee = call.getCallee();
+        if(callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) callee;
+            Object operand = evaluate(get.getOperand());
+            if(operand instanceof JavaObject) {
+                JavaMethod method = ((JavaObject) operand).findMethod(get.getMember(), call.getArguments().size());
+                if(method != null) {
+                    calleeReceiver = null;
+                    calleeTarget = ((JavaObject) operand).getTarget();
+                    return method;
+                }
+            }
+            LoxFunction method = operand instanceof LoxInstance
+                    ? ((LoxInstance) operand).findMethod(get.getMember(), get.getSymbol())
+                    : null;
+            calleeReceiver = method == null ? null : (LoxInstance) operand;
+            return method == null ? getMember(get, operand) : method;
+        }
+        if(callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super) callee;
+            LoxFunction method = superclass(superExpr).findMethod(superExpr.getSymbol());
+            if(method != null) {
+                calleeReceiver = superReceiver(superExpr);
+                return method;
+            }
+        }
+        Object value = evaluate(callee);
+        calleeReceiver = null;
+        return value;
+    }
+
+    /**
+     * Calls a native, class or bound method with up to three arguments through its {@code callN}
+     * entry point, without building an argument list. Lox functions keep the list path: it is what
+     * their frames, tail calls and pure-call caches are filled from.
+     */
+    private Object callDirect(Expr.Call expr, Object callee) {
+        List<Expr> arguments = expr.getArguments();
+        int count = arguments.size();
+        Object a = count > 0 ? evaluate(arguments.get(0)) : null;
+        Object b = count > 1 ? evaluate(arguments.get(1)) : null;
+        Object c = count > 2 ? evaluate(arguments.get(2)) : null;
+        LoxCallable function = prepareCall(expr, callee, count);
+        callSite = expr.getParen();
+        switch (count) {
+            case 0: return function.call0(this);
+            case 1: return function.call1(this, a);
+            case 2: return function.call2(this, a, b);
+            default: return function.call3(this, a, b, c);
+        }
+    }
+
+    private Object callJava(Expr.Call expr, JavaMethod method, Object target) {
+        List<Expr> arguments = expr.getArguments();
+        int count = arguments.size();
+        if(count > 3) {
+            List<Object> args = evaluateArguments(expr);
+            callSite = expr.getParen();
+            return method.call(this, target, args);
+        }
+        Object a = count > 0 ? evaluate(arguments.get(0)) : null;
+        Object b = count > 1 ? evaluate(arguments.get(1)) : null;
+        Object c = count > 2 ? evaluate(arguments.get(2)) : null;
+        callSite = expr.getParen();
+        switch (count) {
+            case 0: return method.call0(this, target);
+            case 1: return method.call1(this, target, a);
+            case 2: return method.call2(this, target, a, b);
+            default: return method.call3(this, target, a, b, c);
+        }
+    }
+
+    private MemoCache pureCache(LoxFunction function) {
+        MemoCache cache = pureCaches.get(function.getDeclaration());
+        if(cache == null) {
+            cache = new LruMemoCache(pureCacheCapacity);
+            pureCaches.put(function.getDeclaration(), cache);
+            if(metrics != null) {
+                metrics.registerCache(function.getName(), cache);
+            }
+        }
+        return cache;
+    }
+
+    private List<Object> evaluateArguments(Expr.Call expr) {
         List<Object> args = new ArrayList<>(expr.getArguments().size());
         for (Expr arg : expr.getArguments()) {
             args.add(evaluate(arg));
         }
+        return args;
+    }
+
+    private LoxCallable prepareCall(Expr.Call expr, Object callee, int argumentCount) {
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expr.getParen(),
                     "Can only call functions and classes.");
         }
         LoxCallable function = (LoxCallable) callee;
-        if (args.size() != function.arity()) {
+        if (argumentCount != function.arity()) {
             throw new RuntimeError(expr.getParen(), "Expected " +
                     function.arity() + " arguments but got " +
-                    args.size() + ".");
+                    argumentCount + ".");
+        }
+        if (function instanceof LoxClass) {
+            budget.allocate(expr.getParen());
         }
-        return  function.call(this, args);
+        return function;
     }
 
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
-        environment.define(stmt.getName().getLexeme(), null);
+        LoxClass superclass = null;
+        if(stmt.getSuperclass() != null) {
+            Object value = evaluate(stmt.getSuperclass());
+            if(!(value instanceof LoxClass)) {
+                throw new RuntimeError(stmt.getSuperclass().getName(), "Superclass must be a class.");
+            }
+            superclass = (LoxClass) value;
+        }
+        //declared first so methods capturing the class name share its cell
+        declare(environment, stmt.getName(), null);
         Map<String, LoxFunction> methods = new HashMap<>();
+        Map<String, LoxProperty> properties = new HashMap<>();
+        Map<String, LoxClassMember> statics = new HashMap<>();
         for(Stmt.Function method : stmt.getMethods())
         {
-            FunctionType functionType = method.getName().getLexeme().equals("init")
-                    ? FunctionType.INITIALIZER
-                    : FunctionType.METHOD;
-
-            LoxFunction fn = new LoxFunction(method, environment, functionType);
-            methods.put(method.getName().getLexeme(), fn);
+            String name = method.getName().getLexeme();
+            LoxFunction fn = member(method, Resolver.methodType(method), superclass);
+            if(method.isStatic()) {
+                statics.put(name, new LoxClassFunction(name, fn));
+            } else {
+                methods.put(name, fn);
+            }
         }
-        LoxClass klass = new LoxClass(stmt.getName().getLexeme(), methods);
+        for(Stmt.Property property : stmt.getProperties()) {
+            String name = property.getName().getLexeme();
+            FunctionType functionType = property.isStatic() ? FunctionType.STATIC : FunctionType.METHOD;
+            LoxProperty member = new LoxProperty(name,
+                    member(property.getGetter(), functionType, superclass),
+                    member(property.getSetter(), functionType, superclass));
+            if(property.isStatic()) {
+                statics.put(name, member);
+            } else {
+                properties.put(name, member);
+            }
+        }
+        LoxClass klass = new LoxClass(stmt.getName().getLexeme(), superclass, methods, properties, statics);
         environment.assign(stmt.getName(), klass);
         return  null;
     }
 
+    private LoxFunction member(Stmt.Function declaration, FunctionType functionType, LoxClass superclass) {
+        if(declaration == null) {
+            return null;
+        }
+        //static members have no 'this', so no 'super' either
+        return new LoxFunction(declaration, captureUpvalues(declaration.getBody()), functionType,
+                functionType == FunctionType.STATIC ? null : superclass);
+    }
+
+    @Override
+    public Void visitPropertyStmt(Stmt.Property stmt) {
+        //properties only occur in class bodies, and visitClassStmt builds them with their class
+        return null;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function statement) {
-        environment.define(
-                statement.getName().getLexeme(),
-                new LoxFunction(statement, environment, FunctionType.NAMED)
+        budget.allocate(statement.getName());
+        //declared first so a recursive local function captures its own cell
+        declare(environment, statement.getName(), null);
+        environment.assignAt(
+                0,
+                statement.getName(),
+                new LoxFunction(statement, captureUpvalues(statement.getBody()), FunctionType.NAMED)
                 );
         return  null;
     }
@@ -365,27 +1172,62 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
     public Object visitAnonymousFunctionExpr(Expr.AnonymousFunction expr) {
         //Create fake name
         Token name = new Token(TokenType.IDENTIFIER, "anonymous", null, 1);
+        budget.allocate(name);
         return new LoxFunction(
                 new Stmt.Function(name, expr.getParams(), expr.getBody(), false),
-                environment,
+                captureUpvalues(expr.getBody()),
                 FunctionType.ANONYMOUS
         );
     }
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
+        Expr expression = stmt.getExpression();
+        if(expression instanceof Expr.Call && tailCalls.contains(expression)) {
+            //LoxFunction.call runs the call once this frame is gone
+            Expr.Call call = (Expr.Call) expression;
+            Object callee = evaluateCallee(call);
+            LoxInstance receiver = calleeReceiver;
+            if(callee instanceof JavaMethod) {
+                throw new ReturnException(callJava(call, (JavaMethod) callee, calleeTarget));
+            }
+            List<Object> args = evaluateArguments(call);
+            LoxCallable function = prepareCall(call, callee, args.size());
+            if(function instanceof LoxBoundMethod) {
+                receiver = ((LoxBoundMethod) function).getReceiver();
+                function = ((LoxBoundMethod) function).getMethod();
+            }
+            pendingTailCall.set(function, receiver, args);
+            callSite = call.getParen();
+            throw tailCallSignal;
+        }
         Object value = null;
         if(stmt.getExpression() != null) {
-            value = stmt.getExpression().accept(this);
+            value = evaluate(stmt.getExpression());
         }
         throw new ReturnException(value);
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        //the module's body waits until one of its members is read
+        declare(environment, stmt.getName(), imports.get(stmt));
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        Object value = stmt.getValue() == null ? null : evaluate(stmt.getValue());
+        //waits here until the generator is asked for its next value
+        generator.yieldValue(value);
+        return null;
+    }
+
     private static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
 
-        return a.equals(b);
+        return LoxString.normalize(a).equals(LoxString.normalize(b));
     }
 
     private void checkNumberOperand(Token operator, Object operand) {
@@ -393,24 +1235,105 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private static String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
+            return LoxValues.toString((double) object);
         }
 
         return object.toString();
     }
 
+    static String stringify(Object object, Set<Object> enclosing) {
+        if(object instanceof LoxArray) {
+            return ((LoxArray) object).toString(enclosing);
+        }
+        if(object instanceof LoxMap) {
+            return ((LoxMap) object).toString(enclosing);
+        }
+        return stringify(object);
+    }
+
     protected void resolve(Expr expr, int depth) {
         locals.put(expr, depth);
     }
 
+    protected void resolveTailCall(Expr.Call call) {
+        tailCalls.add(call);
+    }
+
+    /**
+     * Marks a local declaration that a closure captures, so it is declared in a cell.
+     */
+    protected void resolveCapturedDeclaration(Token name) {
+        capturedDeclarations.add(name);
+    }
+
+    /**
+     * The variables a function captures from the scopes around it, in the order they are bound.
+     */
+    protected void resolveUpvalues(List<Stmt> body, List<Upvalue> captured) {
+        upvalues.put(body, captured.toArray(new Upvalue[0]));
+    }
+
+    protected void resolvePureFunctions(Set<Stmt.Function> functions) {
+        pureFunctions.clear();
+        pureFunctions.addAll(functions);
+    }
+
+    /**
+     * Calls that give the same result every time round their loop, so each activation of the
+     * loop makes them at most once. They still run lazily, on first use.
+     */
+    protected void resolveLoopInvariantCalls(Map<Expr.Call, Stmt> calls) {
+        loopInvariantCalls.clear();
+        invariantCalls.clear();
+        for(Map.Entry<Expr.Call, Stmt> entry : calls.entrySet()) {
+            loopInvariantCalls.computeIfAbsent(entry.getValue(), loop -> new ArrayList<>()).add(entry.getKey());
+            invariantCalls.add(entry.getKey());
+        }
+    }
+
+    /**
+     * Marks a block that declares nothing, so it runs in the enclosing environment.
+     */
+    protected void resolveInlineBlock(Stmt.Block block) {
+        inlineBlocks.add(block);
+    }
+
+    protected void resolveModule(Path file, LoxModule module) {
+        modules.put(file, module);
+    }
+
+    LoxModule findModule(Path file) {
+        return modules.get(file);
+    }
+
+    protected void resolveImport(Stmt.Import stmt, LoxModule module) {
+        imports.put(stmt, module);
+    }
+
+    /**
+     * Marks the body of a function that yields, so calling it makes a generator.
+     */
+    protected void resolveGenerator(List<Stmt> body) {
+        generators.add(body);
+    }
+
+    boolean isGenerator(Stmt.Function function) {
+        return !generators.isEmpty() && generators.contains(function.getBody());
+    }
+
+    protected void resolveCountedLoops(Map<Stmt.For, CountedLoop> loops) {
+        countedLoops.clear();
+        countedLoops.putAll(loops);
+    }
+
+    boolean isPure(Stmt.Function function) {
+        return pureFunctions.contains(function);
+    }
+
     private Object lookupVariable(Token name, Expr expr) {
         Integer distance = locals.get(expr);
         if(distance != null){
@@ -422,9 +1345,73 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Void> {
 
     }
 
-    private static enum LoopState {
+    static enum LoopState {
         None,
         Break,
         Continue
     }
+
+    /**
+     * {@code layout(Class, ["x", "y"])} fixes the fields of the class's instances, so each one
+     * holds an array of slots instead of a hash map. Setting any other field is an error.
+     */
+    private static class Layout extends NativeFunction {
+        Layout() {
+            super("layout", 2);
+        }
+
+        @Override
+        public Object call2(Interpreter interpreter, Object klass, Object fields) {
+            if(!(klass instanceof LoxClass)) {
+                throw new RuntimeError(interpreter.getCallSite(), "Can only give a class a layout.");
+            }
+            if(!(fields instanceof LoxArray)) {
+                throw new RuntimeError(interpreter.getCallSite(), "Layout fields must be an array of strings.");
+            }
+            LoxArray array = (LoxArray) fields;
+            List<String> names = new ArrayList<>();
+            for(int i = 0; i < array.size(); i++) {
+                Object field = array.get(i);
+                if(!LoxString.isString(field)) {
+                    throw new RuntimeError(interpreter.getCallSite(), "Layout fields must be an array of strings.");
+                }
+                if(names.contains(field.toString())) {
+                    throw new RuntimeError(interpreter.getCallSite(), "Field '" + field + "' is in the layout twice.");
+                }
+                names.add(field.toString());
+            }
+            ((LoxClass) klass).setLayout(names);
+            return klass;
+        }
+    }
+
+    /**
+     * {@code memoize(fn, capacity)} caches with LRU eviction, {@code memoizeLfu(fn, capacity)}
+     * with W-TinyLFU, which holds up better when a few hot arguments are mixed with one-off ones.
+     */
+    private static class Memoize extends NativeFunction {
+        private final boolean tinyLfu;
+
+        Memoize(boolean tinyLfu) {
+            super(tinyLfu ? "memoizeLfu" : "memoize", 2);
+            this.tinyLfu = tinyLfu;
+        }
+
+        @Override
+        public Object call2(Interpreter interpreter, Object function, Object capacity) {
+            if(!(function instanceof LoxCallable)) {
+                throw new RuntimeError(interpreter.getCallSite(), "Can only memoize functions.");
+            }
+            if(!(capacity instanceof Double) || (double) capacity < 1 || (double) capacity != Math.floor((double) capacity)) {
+                throw new RuntimeError(interpreter.getCallSite(), "Cache capacity must be a positive integer.");
+            }
+            int size = (int) Math.min((double) capacity, Integer.MAX_VALUE);
+            MemoCache cache = tinyLfu ? new TinyLfuMemoCache(size) : new LruMemoCache(size);
+            MemoizedFunction memoized = new MemoizedFunction((LoxCallable) function, cache);
+            if(interpreter.getMetrics() != null) {
+                interpreter.getMetrics().registerCache(memoized.getName(), cache);
+            }
+            return memoized;
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.util.List;
+
+/**
+ * A method of a {@link JavaObject} read without being called, e.g. {@code var f = list.add;}.
+ */
+final class JavaBoundMethod implements LoxCallable {
+    private final Object target;
+    private final JavaMethod method;
+
+    JavaBoundMethod(Object target, JavaMethod method) {
+        this.target = target;
+        this.method = method;
+    }
+
+    @Override
+    public int arity() {
+        return method.arity();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return method.call(interpreter, target, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return method.call0(interpreter, target);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return method.call1(interpreter, target, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return method.call2(interpreter, target, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return method.call3(interpreter, target, a, b, c);
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
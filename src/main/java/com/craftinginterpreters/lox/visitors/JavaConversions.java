@@ -0,0 +1,226 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.RuntimeError;
+import com.craftinginterpreters.lox.Token;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Adapts Java methods to Lox values. Numbers go to {@code double}, {@code float}, {@code long} and
+ * {@code int} parameters (the last two only when integral), strings to {@code String} and
+ * {@code CharSequence} ones, booleans to {@code boolean}; any other parameter type takes a value that
+ * is an instance of it, with a {@link JavaObject} standing for the object it wraps. Results come back
+ * as Lox numbers, booleans and strings; objects that are not Lox values are wrapped in a
+ * {@link JavaObject}.
+ */
+final class JavaConversions {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodHandle TO_DOUBLE = find("toDouble", double.class);
+    private static final MethodHandle TO_FLOAT = find("toFloat", float.class);
+    private static final MethodHandle TO_LONG = find("toLong", long.class);
+    private static final MethodHandle TO_INT = find("toInt", int.class);
+    private static final MethodHandle TO_BOOLEAN = find("toBoolean", boolean.class);
+    private static final MethodHandle TO_STRING = find("toJavaString", String.class);
+    private static final MethodHandle CAST = find("cast", Object.class, Class.class, Object.class);
+    private static final MethodHandle TO_LOX = find("toLox", Object.class);
+    private static final MethodHandle BOX_NUMBER;
+    private static final MethodHandle BOX_BOOLEAN;
+    private static final MethodHandle BOX_CHAR;
+
+    static {
+        try {
+            BOX_NUMBER = LOOKUP.findStatic(LoxValues.class, "box", MethodType.methodType(Double.class, double.class));
+            BOX_BOOLEAN = LOOKUP.findStatic(LoxValues.class, "bool", MethodType.methodType(Boolean.class, boolean.class));
+            BOX_CHAR = LOOKUP.findStatic(String.class, "valueOf", MethodType.methodType(String.class, char.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private JavaConversions() {
+    }
+
+    /**
+     * {@code target} taking every parameter and returning its result as an Object, converted.
+     */
+    static MethodHandle adapt(MethodHandle target) {
+        MethodType type = target.type();
+        MethodHandle[] arguments = new MethodHandle[type.parameterCount()];
+        for(int i = 0; i < arguments.length; i++) {
+            arguments[i] = argument(type.parameterType(i));
+        }
+        MethodHandle adapted = MethodHandles.filterArguments(target, 0, arguments);
+        Class<?> result = type.returnType();
+        if(result == boolean.class) {
+            adapted = MethodHandles.filterReturnValue(adapted, BOX_BOOLEAN);
+        } else if(result == char.class) {
+            adapted = MethodHandles.filterReturnValue(adapted, BOX_CHAR);
+        } else if(result.isPrimitive() && result != void.class) {
+            //every other primitive widens to double
+            adapted = MethodHandles.filterReturnValue(adapted.asType(adapted.type().changeReturnType(double.class)), BOX_NUMBER);
+        } else if(!result.isPrimitive() && result != String.class) {
+            adapted = MethodHandles.filterReturnValue(adapted.asType(adapted.type().changeReturnType(Object.class)), TO_LOX);
+        }
+        //a void method returns nil
+        return adapted.asType(MethodType.genericMethodType(arguments.length));
+    }
+
+    /**
+     * Whether {@code value} converts to a parameter of {@code type}, for choosing between overloads
+     * that take the same number of arguments.
+     */
+    static boolean accepts(Class<?> type, Object value) {
+        if(type == double.class || type == float.class) return value instanceof Double;
+        if(type == long.class || type == int.class) {
+            return value instanceof Double && (double) value == Math.rint((double) value);
+        }
+        if(type == boolean.class) return value instanceof Boolean;
+        if(type == String.class || type == CharSequence.class) return LoxString.isString(value);
+        return !type.isPrimitive() && (value == null || type.isInstance(unwrap(value)));
+    }
+
+    /**
+     * Orders overloads so the one Lox values fit most naturally is tried first: {@code max(2, 3)}
+     * should pick {@code max(double, double)} over {@code max(int, int)}.
+     */
+    static int rank(Class<?>[] parameters) {
+        int rank = 0;
+        for(Class<?> type : parameters) {
+            if(type == Object.class) rank += 3;
+            else if(type == float.class) rank += 2;
+            else if(type == int.class || type == long.class || type == CharSequence.class) rank += 1;
+            else if(type != double.class && type != boolean.class && type != String.class) rank += 1;
+        }
+        return rank;
+    }
+
+    /**
+     * What a call into Java that threw {@code e} raises in the script, reported at {@code token}.
+     */
+    static RuntimeException failure(Token token, Throwable e) {
+        if(e instanceof RuntimeError) {
+            return (RuntimeError) e;
+        }
+        if(e instanceof Error) {
+            throw (Error) e;
+        }
+        if(e instanceof ConversionException) {
+            return new RuntimeError(token, e.getMessage());
+        }
+        return new RuntimeError(token, e.toString());
+    }
+
+    private static MethodHandle argument(Class<?> type) {
+        if(type == double.class) return TO_DOUBLE;
+        if(type == float.class) return TO_FLOAT;
+        if(type == long.class) return TO_LONG;
+        if(type == int.class) return TO_INT;
+        if(type == boolean.class) return TO_BOOLEAN;
+        if(type == String.class || type == CharSequence.class) return TO_STRING.asType(MethodType.methodType(type, Object.class));
+        if(type.isPrimitive()) {
+            throw new IllegalArgumentException("Lox has no values of type " + type + ".");
+        }
+        return MethodHandles.insertArguments(CAST, 0, type).asType(MethodType.methodType(type, Object.class));
+    }
+
+    private static MethodHandle find(String name, Class<?> result) {
+        return find(name, result, Object.class);
+    }
+
+    private static MethodHandle find(String name, Class<?> result, Class<?>... parameters) {
+        try {
+            return LOOKUP.findStatic(JavaConversions.class, name, MethodType.methodType(result, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static double toDouble(Object value) {
+        if(!(value instanceof Double)) {
+            throw new ConversionException("Expected a number but got " + Interpreter.stringify(value) + ".");
+        }
+        return (double) value;
+    }
+
+    static float toFloat(Object value) {
+        return (float) toDouble(value);
+    }
+
+    static long toLong(Object value) {
+        double number = toDouble(value);
+        if(number != Math.floor(number) || Math.abs(number) > 0x1p53) {
+            throw new ConversionException("Expected an integer but got " + Interpreter.stringify(value) + ".");
+        }
+        return (long) number;
+    }
+
+    static int toInt(Object value) {
+        long number = toLong(value);
+        if(number != (int) number) {
+            throw new ConversionException("Expected a 32-bit integer but got " + Interpreter.stringify(value) + ".");
+        }
+        return (int) number;
+    }
+
+    static boolean toBoolean(Object value) {
+        if(!(value instanceof Boolean)) {
+            throw new ConversionException("Expected a boolean but got " + Interpreter.stringify(value) + ".");
+        }
+        return (boolean) value;
+    }
+
+    static String toJavaString(Object value) {
+        if(!LoxString.isString(value)) {
+            throw new ConversionException("Expected a string but got " + Interpreter.stringify(value) + ".");
+        }
+        return value.toString();
+    }
+
+    static Object cast(Class<?> type, Object value) {
+        value = unwrap(value);
+        if(value != null && !type.isInstance(value)) {
+            throw new ConversionException("Expected a " + type.getSimpleName() + " but got " + Interpreter.stringify(value) + ".");
+        }
+        return value;
+    }
+
+    private static Object unwrap(Object value) {
+        if(value instanceof JavaObject) {
+            return ((JavaObject) value).getTarget();
+        }
+        return LoxString.normalize(value);
+    }
+
+    static Object toLox(Object value) {
+        if(value == null || value instanceof Double || value instanceof Boolean || value instanceof String) {
+            return value;
+        }
+        if(value instanceof Number) {
+            return LoxValues.box(((Number) value).doubleValue());
+        }
+        if(value instanceof Character) {
+            return value.toString();
+        }
+        if(value instanceof LoxInstance || value instanceof LoxCallable || value instanceof LoxArray
+                || value instanceof LoxMap || value instanceof LoxString || value instanceof JavaObject) {
+            return value;
+        }
+        //a method declared to return Object can still hand back a Class
+        if(JavaType.isReflective(value.getClass())) {
+            throw new ConversionException("Scripts cannot use a " + value.getClass().getName() + ".");
+        }
+        return new JavaObject(value);
+    }
+
+    /**
+     * A Lox value that does not fit the Java parameter it is passed to; reported as a runtime error
+     * at the call.
+     */
+    static final class ConversionException extends RuntimeException {
+        ConversionException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.Token;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * A public field of a Java class, read and written through converting method handles.
+ */
+final class JavaField {
+    //(Object target)Object
+    private final MethodHandle getter;
+    //(Object target, Object value)Object, or null for a final field
+    private final MethodHandle setter;
+
+    JavaField(MethodHandle getter, MethodHandle setter) {
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    boolean isWritable() {
+        return setter != null;
+    }
+
+    Object get(Token name, Object target) {
+        try {
+            return (Object) getter.invokeExact(target);
+        } catch (Throwable e) {
+            throw JavaConversions.failure(name, e);
+        }
+    }
+
+    void set(Token name, Object target, Object value) {
+        try {
+            Object ignored = (Object) setter.invokeExact(target, value);
+        } catch (Throwable e) {
+            throw JavaConversions.failure(name, e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+
+/**
+ * The public methods of a Java class with one name and arity. Each handle takes the target object
+ * and then the arguments, all as Objects, and converts them; when there are overloads, the first
+ * whose parameters fit the arguments is called.
+ */
+final class JavaMethod {
+    private final String name;
+    private final int arity;
+    //best fit for Lox values first
+    private final MethodHandle[] handles;
+    private final Class<?>[][] parameters;
+
+    JavaMethod(String name, int arity, MethodHandle[] handles, Class<?>[][] parameters) {
+        this.name = name;
+        this.arity = arity;
+        this.handles = handles;
+        this.parameters = parameters;
+    }
+
+    int arity() {
+        return arity;
+    }
+
+    Object call0(Interpreter interpreter, Object target) {
+        try {
+            return (Object) handles[0].invokeExact(target);
+        } catch (Throwable e) {
+            throw JavaConversions.failure(interpreter.getCallSite(), e);
+        }
+    }
+
+    Object call1(Interpreter interpreter, Object target, Object a) {
+        try {
+            return (Object) select(a, null, null).invokeExact(target, a);
+        } catch (Throwable e) {
+            throw JavaConversions.failure(interpreter.getCallSite(), e);
+        }
+    }
+
+    Object call2(Interpreter interpreter, Object target, Object a, Object b) {
+        try {
+            return (Object) select(a, b, null).invokeExact(target, a, b);
+        } catch (Throwable e) {
+            throw JavaConversions.failure(interpreter.getCallSite(), e);
+        }
+    }
+
+    Object call3(Interpreter interpreter, Object target, Object a, Object b, Object c) {
+        try {
+            return (Object) select(a, b, c).invokeExact(target, a, b, c);
+        } catch (Throwable e) {
+            throw JavaConversions.failure(interpreter.getCallSite(), e);
+        }
+    }
+
+    Object call(Interpreter interpreter, Object target, List<Object> arguments) {
+        switch (arguments.size()) {
+            case 0: return call0(interpreter, target);
+            case 1: return call1(interpreter, target, arguments.get(0));
+            case 2: return call2(interpreter, target, arguments.get(0), arguments.get(1));
+            case 3: return call3(interpreter, target, arguments.get(0), arguments.get(1), arguments.get(2));
+        }
+        Object[] values = new Object[arguments.size() + 1];
+        values[0] = target;
+        for(int i = 0; i < arguments.size(); i++) {
+            values[i + 1] = arguments.get(i);
+        }
+        MethodHandle handle = handles[0];
+        for(int i = 0; i < handles.length && handles.length > 1; i++) {
+            if(fits(parameters[i], arguments)) {
+                handle = handles[i];
+                break;
+            }
+        }
+        try {
+            return handle.invokeWithArguments(values);
+        } catch (Throwable e) {
+            throw JavaConversions.failure(interpreter.getCallSite(), e);
+        }
+    }
+
+    //no overload fitting means a conversion fails, so fall back to the first to report it
+    private MethodHandle select(Object a, Object b, Object c) {
+        if(handles.length == 1) {
+            return handles[0];
+        }
+        for(int i = 0; i < handles.length; i++) {
+            Class<?>[] types = parameters[i];
+            if((types.length < 1 || JavaConversions.accepts(types[0], a))
+                    && (types.length < 2 || JavaConversions.accepts(types[1], b))
+                    && (types.length < 3 || JavaConversions.accepts(types[2], c))) {
+                return handles[i];
+            }
+        }
+        return handles[0];
+    }
+
+    private static boolean fits(Class<?>[] types, List<Object> arguments) {
+        for(int i = 0; i < types.length; i++) {
+            if(!JavaConversions.accepts(types[i], arguments.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "<java method " + name + ">";
+    }
+}
@@ -0,0 +1,85 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.RuntimeError;
+import com.craftinginterpreters.lox.Token;
+
+/**
+ * A Java object handed to a script. Its public fields read and write like Lox fields and its public
+ * methods are called like Lox methods, through the method handles its {@link JavaType}
+ * caches, so only the first call of a method reflects.
+ *
+ * Two wrappers of the same object are equal, so {@code ==} compares the objects by identity.
+ */
+public final class JavaObject {
+    private final Object target;
+    private final JavaType type;
+
+    public JavaObject(Object target) {
+        if(target == null) {
+            throw new IllegalArgumentException("Cannot wrap null; use nil.");
+        }
+        this.target = target;
+        this.type = JavaType.of(target.getClass());
+    }
+
+    public Object getTarget() {
+        return target;
+    }
+
+    /**
+     * The method {@code object.name(...)} with {@code arity} arguments calls, or null when there is
+     * none and the name should be read as a field.
+     */
+    JavaMethod findMethod(Token name, int arity) {
+        return type.findMethod(name.getLexeme(), arity);
+    }
+
+    Object get(Token name) {
+        JavaField field = type.findField(name.getLexeme());
+        if(field != null) {
+            return field.get(name, target);
+        }
+        JavaMethod[] methods = type.findMethods(name.getLexeme());
+        if(methods.length == 0) {
+            throw new RuntimeError(name, "Undefined property '" + name.getLexeme() + "' of " + type.getName() + ".");
+        }
+        JavaMethod method = null;
+        for(JavaMethod candidate : methods) {
+            if(candidate != null) {
+                if(method != null) {
+                    throw new RuntimeError(name, "Method '" + name.getLexeme() + "' of " + type.getName() +
+                            " takes different numbers of arguments; call it directly.");
+                }
+                method = candidate;
+            }
+        }
+        if(method == null) {
+            throw new RuntimeError(name, "Undefined property '" + name.getLexeme() + "' of " + type.getName() + ".");
+        }
+        return new JavaBoundMethod(target, method);
+    }
+
+    Object set(Token name, Object value) {
+        JavaField field = type.findField(name.getLexeme());
+        if(field == null || !field.isWritable()) {
+            throw new RuntimeError(name, "Cannot set '" + name.getLexeme() + "' of " + type.getName() + ".");
+        }
+        field.set(name, target, value);
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof JavaObject && ((JavaObject) other).target == target;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(target);
+    }
+
+    @Override
+    public String toString() {
+        return target.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+/**
+ * A public static Java method called from Lox through a {@link MethodHandle} that converts its
+ * arguments and result with {@link JavaConversions}. Exceptions the method throws become runtime
+ * errors at the call.
+ */
+public final class JavaStaticFunction extends NativeFunction {
+    //(Object...)Object with one parameter per argument, so calls of up to three use invokeExact
+    private final MethodHandle handle;
+
+    private JavaStaticFunction(String name, int arity, MethodHandle handle) {
+        super(name, arity);
+        this.handle = handle;
+    }
+
+    public static JavaStaticFunction of(Method method) {
+        if(!Modifier.isStatic(method.getModifiers())) {
+            throw new IllegalArgumentException("Only static methods can be bound as natives: " + method);
+        }
+        try {
+            MethodHandle target = MethodHandles.publicLookup().unreflect(method);
+            return new JavaStaticFunction(method.getName(), method.getParameterCount(), JavaConversions.adapt(target));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot bind " + method + " as a native.", e);
+        }
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        if(arguments.size() <= 3) {
+            return super.call(interpreter, arguments);
+        }
+        try {
+            return handle.invokeWithArguments(arguments);
+        } catch (Throwable e) {
+            throw JavaConversions.failure(interpreter.getCallSite(), e);
+        }
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        try {
+            return (Object) handle.invokeExact();
+        } catch (Throwable e) {
+            throw JavaConversions.failure(interpreter.getCallSite(), e);
+        }
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        try {
+            return (Object) handle.invokeExact(a);
+        } catch (Throwable e) {
+            throw JavaConversions.failure(interpreter.getCallSite(), e);
+        }
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        try {
+            return (Object) handle.invokeExact(a, b);
+        } catch (Throwable e) {
+            throw JavaConversions.failure(interpreter.getCallSite(), e);
+        }
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        try {
+            return (Object) handle.invokeExact(a, b, c);
+        } catch (Throwable e) {
+            throw JavaConversions.failure(interpreter.getCallSite(), e);
+        }
+    }
+}
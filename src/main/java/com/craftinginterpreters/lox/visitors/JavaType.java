@@ -0,0 +1,218 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The public members of a Java class as scripts see them. A name is looked up reflectively the
+ * first time a script uses it; the {@link JavaMethod}s and {@link JavaField} found are kept, so
+ * later calls go straight to their method handles. One per class, shared by every interpreter.
+ *
+ * Of the methods every object has, only {@code toString}, {@code equals} and {@code hashCode} are
+ * exposed, and no member whose type is part of reflection, so a script cannot get from an object it
+ * was handed to {@code java.lang.Class} and from there to anything else.
+ */
+final class JavaType {
+    private static final ClassValue<JavaType> TYPES = new ClassValue<JavaType>() {
+        @Override
+        protected JavaType computeValue(Class<?> type) {
+            return new JavaType(type);
+        }
+    };
+
+    private final Class<?> type;
+    //methods of each name indexed by arity, with null where there is no overload of that arity
+    private final ConcurrentHashMap<String, JavaMethod[]> methods = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Optional<JavaField>> fields = new ConcurrentHashMap<>();
+
+    private JavaType(Class<?> type) {
+        this.type = type;
+    }
+
+    static JavaType of(Class<?> type) {
+        return TYPES.get(type);
+    }
+
+    String getName() {
+        return type.getSimpleName();
+    }
+
+    JavaMethod findMethod(String name, int arity) {
+        JavaMethod[] byArity = findMethods(name);
+        return arity < byArity.length ? byArity[arity] : null;
+    }
+
+    JavaMethod[] findMethods(String name) {
+        JavaMethod[] byArity = methods.get(name);
+        if(byArity == null) {
+            byArity = methods.computeIfAbsent(name, this::resolveMethods);
+        }
+        return byArity;
+    }
+
+    JavaField findField(String name) {
+        Optional<JavaField> field = fields.get(name);
+        if(field == null) {
+            field = fields.computeIfAbsent(name, this::resolveField);
+        }
+        return field.orElse(null);
+    }
+
+    private JavaMethod[] resolveMethods(String name) {
+        List<List<Method>> byArity = new ArrayList<>();
+        for(Method method : type.getMethods()) {
+            if(!method.getName().equals(name) || !isExposed(method)) {
+                continue;
+            }
+            int arity = method.getParameterCount();
+            while(byArity.size() <= arity) {
+                byArity.add(new ArrayList<>());
+            }
+            addOverload(byArity.get(arity), method);
+        }
+        JavaMethod[] resolved = new JavaMethod[byArity.size()];
+        for(int arity = 0; arity < resolved.length; arity++) {
+            List<MethodHandle> handles = new ArrayList<>();
+            List<Class<?>[]> parameters = new ArrayList<>();
+            List<Method> overloads = byArity.get(arity);
+            overloads.sort((a, b) -> Integer.compare(JavaConversions.rank(a.getParameterTypes()),
+                    JavaConversions.rank(b.getParameterTypes())));
+            for(Method method : overloads) {
+                MethodHandle handle = unreflect(method);
+                if(handle == null) {
+                    continue;
+                }
+                if(Modifier.isStatic(method.getModifiers())) {
+                    //called on an instance, so it takes the target like any other method
+                    handle = MethodHandles.dropArguments(handle, 0, Object.class);
+                }
+                try {
+                    handles.add(JavaConversions.adapt(handle));
+                    parameters.add(method.getParameterTypes());
+                } catch (IllegalArgumentException e) {
+                    //takes a type no Lox value converts to, e.g. char
+                }
+            }
+            if(!handles.isEmpty()) {
+                resolved[arity] = new JavaMethod(name, arity,
+                        handles.toArray(new MethodHandle[0]), parameters.toArray(new Class<?>[0][]));
+            }
+        }
+        //no trailing arities without a usable overload, so a name with none at all has no entry
+        int length = resolved.length;
+        while(length > 0 && resolved[length - 1] == null) {
+            length--;
+        }
+        return Arrays.copyOf(resolved, length);
+    }
+
+    private static boolean isExposed(Method method) {
+        if(method.getDeclaringClass() == Object.class) {
+            String name = method.getName();
+            return name.equals("toString") || name.equals("equals") || name.equals("hashCode");
+        }
+        if(isReflective(method.getReturnType())) {
+            return false;
+        }
+        for(Class<?> parameter : method.getParameterTypes()) {
+            if(isReflective(parameter)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Types that give access to classes and their members: Class, class loaders, and everything in
+     * java.lang.reflect and java.lang.invoke.
+     */
+    static boolean isReflective(Class<?> type) {
+        while(type.isArray()) {
+            type = type.getComponentType();
+        }
+        if(type == Class.class || ClassLoader.class.isAssignableFrom(type)) {
+            return true;
+        }
+        String name = type.getName();
+        return name.startsWith("java.lang.reflect.") || name.startsWith("java.lang.invoke.");
+    }
+
+    //a public class re-exposes methods it inherits from a non-public one as bridges, and covariant
+    //overrides leave bridges behind too; keep one method per parameter list, preferring a real one
+    private static void addOverload(List<Method> overloads, Method method) {
+        for(int i = 0; i < overloads.size(); i++) {
+            if(Arrays.equals(overloads.get(i).getParameterTypes(), method.getParameterTypes())) {
+                if(overloads.get(i).isBridge() && !method.isBridge()) {
+                    overloads.set(i, method);
+                }
+                return;
+            }
+        }
+        overloads.add(method);
+    }
+
+    private Optional<JavaField> resolveField(String name) {
+        try {
+            Field field = type.getField(name);
+            if(isReflective(field.getType())) {
+                return Optional.empty();
+            }
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodHandle getter = lookup.unreflectGetter(field);
+            MethodHandle setter = Modifier.isFinal(field.getModifiers()) ? null : lookup.unreflectSetter(field);
+            if(Modifier.isStatic(field.getModifiers())) {
+                getter = MethodHandles.dropArguments(getter, 0, Object.class);
+                setter = setter == null ? null : MethodHandles.dropArguments(setter, 0, Object.class);
+            }
+            return Optional.of(new JavaField(JavaConversions.adapt(getter),
+                    setter == null ? null : JavaConversions.adapt(setter)));
+        } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * A handle for a public method. One declared by a class that is not public itself, like a
+     * collection's iterator, is looked up on a public supertype that declares it instead.
+     */
+    private static MethodHandle unreflect(Method method) {
+        try {
+            return MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            return unreflectInherited(method.getDeclaringClass(), method);
+        }
+    }
+
+    private static MethodHandle unreflectInherited(Class<?> owner, Method method) {
+        List<Class<?>> supertypes = new ArrayList<>();
+        if(owner.getSuperclass() != null) {
+            supertypes.add(owner.getSuperclass());
+        }
+        for(Class<?> implemented : owner.getInterfaces()) {
+            supertypes.add(implemented);
+        }
+        for(Class<?> supertype : supertypes) {
+            if(Modifier.isPublic(supertype.getModifiers())) {
+                try {
+                    Method inherited = supertype.getMethod(method.getName(), method.getParameterTypes());
+                    return MethodHandles.publicLookup().unreflect(inherited);
+                } catch (NoSuchMethodException | IllegalAccessException e) {
+                    //keep looking further up
+                }
+            }
+            MethodHandle handle = unreflectInherited(supertype, method);
+            if(handle != null) {
+                return handle;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,116 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The lines of a UTF-8 file, read through a {@link FileChannel} one buffer at a time, so files of
+ * any size stream through in constant memory. Lines are split on {@code \n}, with a trailing
+ * {@code \r} dropped; the channel is closed once the last line has been read. Until then the reader
+ * stays in the interpreter's set of open files, which it closes when the script ends.
+ */
+public final class LineReader implements Iterator<String>, Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final Set<Closeable> openFiles;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    //the line being assembled when it straddles two reads
+    private byte[] partial = new byte[256];
+    private int partialLength;
+    private String next;
+    private boolean done;
+
+    LineReader(Path path, Set<Closeable> openFiles) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.openFiles = openFiles;
+        openFiles.add(this);
+        buffer.flip();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(next == null && !done) {
+            try {
+                next = readLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException("No more lines.");
+        }
+        String line = next;
+        next = null;
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        done = true;
+        openFiles.remove(this);
+        channel.close();
+    }
+
+    private String readLine() throws IOException {
+        while(true) {
+            byte[] bytes = buffer.array();
+            int start = buffer.position();
+            int end = buffer.limit();
+            for(int i = start; i < end; i++) {
+                if(bytes[i] == '\n') {
+                    buffer.position(i + 1);
+                    if(partialLength == 0) {
+                        return decode(bytes, start, i - start);
+                    }
+                    append(bytes, start, i - start);
+                    return takePartial();
+                }
+            }
+            append(bytes, start, end - start);
+            buffer.clear();
+            int read = channel.read(buffer);
+            buffer.flip();
+            if(read < 0) {
+                close();
+                return partialLength == 0 ? null : takePartial();
+            }
+        }
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        if(partialLength + length > partial.length) {
+            partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + length));
+        }
+        System.arraycopy(bytes, offset, partial, partialLength, length);
+        partialLength += length;
+    }
+
+    private String takePartial() {
+        String line = decode(partial, 0, partialLength);
+        partialLength = 0;
+        return line;
+    }
+
+    private static String decode(byte[] bytes, int offset, int length) {
+        if(length > 0 && bytes[offset + length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,172 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.RuntimeError;
+import com.craftinginterpreters.lox.Token;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A growable array. While every element is a number the elements are kept unboxed in a
+ * {@code double[]}; the first non-number moves them to an {@code Object[]} for good.
+ */
+public class LoxArray {
+    private static final int MIN_CAPACITY = 8;
+
+    private double[] numbers;
+    private Object[] values;
+    private int size;
+
+    public LoxArray(int capacity) {
+        numbers = new double[Math.max(capacity, MIN_CAPACITY)];
+    }
+
+    /**
+     * The longest array the JVM can make that fits, unboxed, in the maximum heap.
+     */
+    static int maxLength() {
+        return (int) Math.min(Integer.MAX_VALUE - 8, Runtime.getRuntime().maxMemory() / Double.BYTES);
+    }
+
+    public static LoxArray of(List<Object> elements) {
+        LoxArray array = new LoxArray(elements.size());
+        for(Object element : elements) {
+            array.add(element);
+        }
+        return array;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isNumeric() {
+        return numbers != null;
+    }
+
+    public Object get(int index) {
+        return numbers != null ? LoxValues.box(numbers[index]) : values[index];
+    }
+
+    public Object get(Token bracket, Object index) {
+        return get(checkIndex(bracket, index));
+    }
+
+    public void set(Token bracket, Object index, Object value) {
+        int i = checkIndex(bracket, index);
+        if(numbers != null) {
+            if(value instanceof Double) {
+                numbers[i] = (double) value;
+                return;
+            }
+            box();
+        }
+        values[i] = value;
+    }
+
+    public void add(Object value) {
+        if(numbers != null && !(value instanceof Double)) {
+            box();
+        }
+        if(numbers != null) {
+            if(size == numbers.length) {
+                numbers = Arrays.copyOf(numbers, size * 2);
+            }
+            numbers[size++] = (double) value;
+        } else {
+            if(size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    public Object removeLast() {
+        if(size == 0) {
+            return null;
+        }
+        Object last = get(size - 1);
+        size--;
+        if(values != null) {
+            values[size] = null;
+        }
+        return last;
+    }
+
+    public Object getMember(Token name) {
+        switch (name.getLexeme()) {
+            case "length":
+                return LoxValues.box(size);
+            case "push":
+                return new NativeFunction("push", 1) {
+                    @Override
+                    public Object call1(Interpreter interpreter, Object value) {
+                        add(value);
+                        return null;
+                    }
+                };
+            case "pop":
+                return new NativeFunction("pop", 0) {
+                    @Override
+                    public Object call0(Interpreter interpreter) {
+                        return removeLast();
+                    }
+                };
+            default:
+                throw new RuntimeError(name, "Undefined property '" + name.getLexeme() + "'.");
+        }
+    }
+
+    private void box() {
+        values = new Object[numbers.length];
+        for(int i = 0; i < size; i++) {
+            values[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    private int checkIndex(Token bracket, Object index) {
+        if(!(index instanceof Double)) {
+            throw new RuntimeError(bracket, "Array index must be a number.");
+        }
+        double d = (double) index;
+        if(d != Math.floor(d) || Double.isInfinite(d)) {
+            throw new RuntimeError(bracket, "Array index must be an integer.");
+        }
+        int i = (int) d;
+        if(i != d || i < 0 || i >= size) {
+            throw new RuntimeError(bracket,
+                    "Array index " + Interpreter.stringify(index) + " is out of bounds for length " + size + ".");
+        }
+        return i;
+    }
+
+    @Override
+    public String toString() {
+        return toString(Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    /**
+     * The elements as text, with an array or map that contains itself shown as {@code [...]} or
+     * {@code {...}} where it repeats. {@code enclosing} holds the containers being printed.
+     */
+    String toString(Set<Object> enclosing) {
+        if(!enclosing.add(this)) {
+            return "[...]";
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append('[');
+        for(int i = 0; i < size; i++) {
+            if(i > 0) {
+                builder.append(", ");
+            }
+            builder.append(Interpreter.stringify(get(i), enclosing));
+        }
+        builder.append(']');
+        enclosing.remove(this);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.util.List;
+
+/**
+ * A method read off an instance without being called, e.g. {@code var f = obj.method;}. Calls
+ * made on the spot go straight to {@link LoxFunction} with the instance instead.
+ */
+public class LoxBoundMethod implements LoxCallable {
+    private final LoxInstance receiver;
+    private final LoxFunction method;
+
+    LoxBoundMethod(LoxInstance receiver, LoxFunction method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    public LoxInstance getReceiver() {
+        return receiver;
+    }
+
+    public LoxFunction getMethod() {
+        return method;
+    }
+
+    @Override
+    public int arity() {
+        return method.arity();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return method.call(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
@@ -1,8 +1,32 @@
 package com.craftinginterpreters.lox.visitors;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * Something a script can call. The interpreter calls natives, classes and bound methods with up to
+ * three arguments through {@code call0} to {@code call3}, so callables that override those (see
+ * {@link NativeFunction}) are called without an argument list being built; the defaults build one
+ * and hand it to {@link #call(Interpreter, List)}.
+ */
 public interface LoxCallable {
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, Collections.singletonList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
 }
@@ -1,24 +1,55 @@
 package com.craftinginterpreters.lox.visitors;
 
+import com.craftinginterpreters.lox.RuntimeError;
+import com.craftinginterpreters.lox.Symbols;
+import com.craftinginterpreters.lox.Token;
+
 import java.util.List;
 import java.util.Map;
 
 public class LoxClass implements LoxCallable{
     final String name;
-    final Map<String, LoxFunction> functions;
+    final LoxClass superclass;
+    //every method the class responds to, inherited ones included, indexed by symbol. Built once
+    //when the class is defined, so a lookup costs the same however deep the hierarchy is
+    private final MemberTable<LoxFunction> methods;
+    //instance properties and static members, laid out the same way
+    private final MemberTable<LoxProperty> properties;
+    private final MemberTable<LoxClassMember> statics;
     final LoxFunction init;
+    //set by the layout native; instances created afterwards use it, subclasses don't inherit it
+    FieldLayout layout;
 
-    public LoxClass(String name, Map<String, LoxFunction> functions)
+    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> functions,
+             Map<String, LoxProperty> properties, Map<String, LoxClassMember> statics)
     {
         this.name = name;
-        this.functions = functions;
-        init = (LoxFunction) functions.getOrDefault("init", null);
+        this.superclass = superclass;
+        MemberTable<LoxFunction> methodTable = MemberTable.extend(
+                superclass == null ? MemberTable.empty() : superclass.methods, functions);
+        MemberTable<LoxProperty> propertyTable = MemberTable.extend(
+                superclass == null ? MemberTable.empty() : superclass.properties, properties);
+        this.statics = MemberTable.extend(superclass == null ? MemberTable.empty() : superclass.statics, statics);
+        //a method overrides an inherited property of the same name and the other way round
+        for(String method : functions.keySet()) {
+            propertyTable = propertyTable.without(Symbols.find(method));
+        }
+        for(String property : properties.keySet()) {
+            methodTable = methodTable.without(Symbols.find(property));
+        }
+        this.methods = methodTable;
+        this.properties = propertyTable;
+        init = findMethod("init");
     }
 
     public String getName() {
         return name;
     }
 
+    public LoxClass getSuperclass() {
+        return superclass;
+    }
+
     @Override
     public String toString() {
         return name;
@@ -32,18 +63,59 @@ public class LoxClass implements LoxCallable{
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
         LoxInstance instance = new LoxInstance(this);
+        if(interpreter.getMetrics() != null) {
+            interpreter.getMetrics().recordAllocation(instance);
+        }
         if(init != null) {
-            LoxFunction ctor = init.bind(instance);
-            ctor.call(interpreter, arguments);
+            init.call(interpreter, instance, arguments);
         }
         return  instance;
     }
 
+    /**
+     * Gives instances created from now on a slot per field in {@code fields} and no field map.
+     */
+    void setLayout(List<String> fields) {
+        layout = new FieldLayout(fields);
+    }
+
+    public boolean hasLayout() {
+        return layout != null;
+    }
+
     public LoxFunction findMethod(String name) {
-        if (functions.containsKey(name)) {
-            return(LoxFunction) functions.get(name);
+        return findMethod(Symbols.find(name));
+    }
+
+    LoxFunction findMethod(int symbol) {
+        return methods.get(symbol);
+    }
+
+    boolean hasProperties() {
+        return !properties.isEmpty();
+    }
+
+    LoxProperty findProperty(int symbol) {
+        return properties.get(symbol);
+    }
+
+    /**
+     * {@code Class.name}: a static method or the value of a static property. Instance methods
+     * are still handed out unbound, as they were before classes had static members.
+     */
+    Object getStatic(Interpreter interpreter, Token name, int symbol) {
+        LoxClassMember member = statics.get(symbol);
+        if(member instanceof LoxProperty) {
+            return ((LoxProperty) member).get(interpreter, null, name);
         }
+        return member != null ? member : findMethod(symbol);
+    }
 
-        return null;
+    Object setStatic(Interpreter interpreter, Token name, int symbol, Object value) {
+        LoxClassMember member = statics.get(symbol);
+        if(!(member instanceof LoxProperty)) {
+            throw new RuntimeError(name, "Undefined static property '" + name.getLexeme() + "'.");
+        }
+        return ((LoxProperty) member).set(interpreter, null, name, value);
     }
 }
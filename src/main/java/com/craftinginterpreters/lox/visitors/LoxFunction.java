@@ -1,5 +1,6 @@
 package com.craftinginterpreters.lox.visitors;
 
+import com.craftinginterpreters.lox.BudgetExceededError;
 import com.craftinginterpreters.lox.ReturnException;
 import com.craftinginterpreters.lox.Stmt;
 
@@ -9,12 +10,19 @@ public class LoxFunction implements LoxCallable {
     private final Stmt.Function function;
     private final Environment closure;
     private final FunctionType functionType;
+    //what 'super' refers to in a method of a subclass
+    private final LoxClass superclass;
 
     public LoxFunction(Stmt.Function function, Environment closure, FunctionType functionType) {
+        this(function, closure, functionType, null);
+    }
+
+    public LoxFunction(Stmt.Function function, Environment closure, FunctionType functionType, LoxClass superclass) {
 
         this.function = function;
         this.closure = closure;
         this.functionType = functionType;
+        this.superclass = superclass;
     }
 
     @Override
@@ -24,25 +32,129 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+        return call(interpreter, null, arguments);
+    }
+
+    /**
+     * Runs the function as a method of {@code receiver}, which its frame holds as 'this', so
+     * calling a method never needs a bound copy of it. Calling a generator runs none of its body,
+     * it only makes the generator.
+     */
+    Object call(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        if(interpreter.isGenerator(function)) {
+            interpreter.getBudget().allocate(function.getName());
+            return new LoxGenerator(interpreter, this, receiver, arguments);
+        }
+        return run(interpreter, receiver, arguments);
+    }
+
+    /**
+     * Runs the body to the end, on the calling thread.
+     */
+    Object run(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        ExecutionBudget budget = interpreter.getBudget();
+        CallStack callStack = interpreter.getCallStack();
+        LoxFunction current = this;
+        Environment environment = bindArguments(interpreter, receiver, arguments);
+        budget.enterCall(function.getName());
+        callStack.push(current, environment, interpreter.getCallLine());
+        ExecutionMetrics metrics = interpreter.getMetrics();
+        if(metrics != null) {
+            metrics.recordCall(current);
+        }
+        interpreter.safepoint(function.getName());
+        try {
+            //trampoline: a tail call hands its callee back here instead of growing the stack
+            while (true) {
+                Object result = current.execute(interpreter, environment);
+                if (!(result instanceof TailCall)) {
+                    return result;
+                }
+                TailCall tailCall = (TailCall) result;
+                LoxCallable callee = tailCall.callee;
+                LoxInstance nextReceiver = tailCall.receiver;
+                List<Object> args = tailCall.arguments;
+                tailCall.set(null, null, null);
+                if (!(callee instanceof LoxFunction)) {
+                    return callee.call(interpreter, args);
+                }
+                LoxFunction next = (LoxFunction) callee;
+                if (interpreter.isGenerator(next.function)) {
+                    return next.call(interpreter, nextReceiver, args);
+                }
+                //nothing can still see the finished frame, so recycle its environment
+                environment.reuse(next.closure);
+                next.declareReceiver(environment, nextReceiver);
+                next.declareArguments(interpreter, environment, args);
+                current = next;
+                budget.step(current.function.getName());
+                callStack.replaceTop(current, environment);
+                if(metrics != null) {
+                    metrics.recordCall(current);
+                }
+                interpreter.safepoint(current.function.getName());
+            }
+        } catch (StackOverflowError error) {
+            //stop the script rather than the host thread when the recursion outgrows the JVM stack
+            throw new BudgetExceededError(current.function.getName(), "Stack overflow in '" +
+                    current.function.getName().getLexeme() + "'.");
+        } finally {
+            callStack.pop();
+            budget.exitCall();
+            interpreter.releaseEnvironment(environment);
+        }
+    }
+
+    public String getName() {
+        return function.getName().getLexeme();
+    }
+
+    public Stmt.Function getDeclaration() {
+        return function;
+    }
+
+    private Environment bindArguments(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        //closures capture cells rather than the frame, so it is dead once the call returns
+        Environment environment = interpreter.acquireEnvironment(closure);
+        declareReceiver(environment, receiver);
+        declareArguments(interpreter, environment, arguments);
+        return environment;
+    }
+
+    private void declareReceiver(Environment environment, LoxInstance receiver) {
+        if(receiver == null) {
+            return;
+        }
+        environment.defineThis(receiver);
+        if(superclass != null) {
+            environment.defineSuper(superclass);
+        }
+    }
+
+    private void declareArguments(Interpreter interpreter, Environment environment, List<Object> arguments) {
         for (int i = 0; i < function.getParams().size(); i++) {
-            environment.declare(
+            interpreter.declare(
+                    environment,
                     function.getParams().get(i),
                     arguments.get(i)
             );
         }
+    }
+
+    private Object execute(Interpreter interpreter, Environment environment) {
         try {
             interpreter.executeBlock(function.getBody(), environment);
             return null;
-        }catch (ReturnException ex) {
-            return  ex.getValue();
+        } catch (ReturnException ex) {
+            return ex.getValue();
         }
     }
 
-    public LoxFunction bind(LoxInstance instance)
+    /**
+     * The method as a value, for when it is read rather than called straight away.
+     */
+    public LoxBoundMethod bind(LoxInstance instance)
     {
-        Environment e = new Environment(closure);
-        e.defineThis(instance);
-        return  new LoxFunction(function, e, functionType);
+        return new LoxBoundMethod(instance, this);
     }
 }
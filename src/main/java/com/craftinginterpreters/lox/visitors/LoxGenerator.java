@@ -0,0 +1,230 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.RuntimeError;
+import com.craftinginterpreters.lox.Token;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What calling a function that contains {@code yield} returns. Nothing of the body runs until the
+ * first value is asked for, and then only up to the next yield, so a pipeline of generators holds
+ * one element per stage however long the stream is.
+ *
+ * The body runs on a strand thread of the interpreter's that hands control back and forth with the
+ * code taking its values: exactly one of them runs at a time, and the other is parked. Scripts see
+ * {@code hasNext()}, {@code next()} and {@code close()}; for-in takes it like any other iterator.
+ */
+public final class LoxGenerator implements Iterator<Object>, Closeable {
+    private static final Object EMPTY = new Object();
+
+    private final Strand strand;
+    //the value hasNext() ran ahead to, EMPTY when there is none
+    private Object buffered = EMPTY;
+
+    LoxGenerator(Interpreter interpreter, LoxFunction function, LoxInstance receiver, List<Object> arguments) {
+        interpreter.closeDroppedGenerators();
+        strand = new Strand(this, interpreter, function, receiver, arguments);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(buffered == EMPTY) {
+            buffered = strand.resume();
+        }
+        return buffered != Strand.END;
+    }
+
+    @Override
+    public Object next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object value = buffered;
+        buffered = EMPTY;
+        return value;
+    }
+
+    /**
+     * Stops the body at the yield it is waiting in, so it unwinds and its thread is free again.
+     */
+    @Override
+    public void close() {
+        buffered = Strand.END;
+        strand.close();
+    }
+
+    public Object getMember(Token name) {
+        switch (name.getLexeme()) {
+            case "hasNext":
+                return new NativeFunction("hasNext", 0) {
+                    @Override
+                    public Object call0(Interpreter interpreter) {
+                        return hasNext();
+                    }
+                };
+            case "next":
+                return new NativeFunction("next", 0) {
+                    @Override
+                    public Object call0(Interpreter interpreter) {
+                        if(!hasNext()) {
+                            throw new RuntimeError(interpreter.getCallSite(), "The generator has no more values.");
+                        }
+                        return next();
+                    }
+                };
+            case "close":
+                return new NativeFunction("close", 0) {
+                    @Override
+                    public Object call0(Interpreter interpreter) {
+                        close();
+                        return null;
+                    }
+                };
+            default:
+                throw new RuntimeError(name, "Undefined property '" + name.getLexeme() + "'.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<generator " + strand.function.getName() + ">";
+    }
+
+    /**
+     * The running body of a generator. It holds its generator only weakly: once the script drops
+     * the generator, the interpreter finds the strand on its queue and closes it.
+     */
+    static final class Strand extends WeakReference<LoxGenerator> implements Runnable {
+        static final Object END = new Object();
+        private static final Closed CLOSED = new Closed();
+
+        private final Interpreter interpreter;
+        private final LoxFunction function;
+        private final LoxInstance receiver;
+        private final List<Object> arguments;
+        //while the body runs, the state of its caller; while it waits, its own
+        private final ExecutionContext context;
+
+        //true while the body runs, false while its caller does
+        private volatile boolean bodyTurn;
+        private volatile Thread caller;
+        //the strand thread running the body, set by the body itself once it starts
+        private volatile Thread thread;
+        private boolean started;
+        private Object value;
+        private Throwable failure;
+        private boolean finished;
+        private boolean closing;
+
+        Strand(LoxGenerator generator, Interpreter interpreter, LoxFunction function, LoxInstance receiver,
+               List<Object> arguments) {
+            super(generator, interpreter.droppedGenerators());
+            this.interpreter = interpreter;
+            this.function = function;
+            this.receiver = receiver;
+            this.arguments = arguments;
+            this.context = new ExecutionContext(interpreter.getGlobals(), this);
+        }
+
+        /**
+         * Runs the body up to its next yield and returns the value yielded, or END once the body
+         * has finished. Errors in the body are thrown here, to the code that asked for the value.
+         */
+        Object resume() {
+            if(finished) {
+                return END;
+            }
+            caller = Thread.currentThread();
+            //taken before the switch, which leaves the body's own call site current
+            Token site = interpreter.getCallSite() != null ? interpreter.getCallSite() : function.getDeclaration().getName();
+            interpreter.switchContext(context);
+            try {
+                bodyTurn = true;
+                if(!started) {
+                    try {
+                        interpreter.startStrand(this, site);
+                    } catch (RuntimeError error) {
+                        bodyTurn = false;
+                        throw error;
+                    }
+                    started = true;
+                } else {
+                    LockSupport.unpark(thread);
+                }
+                while(bodyTurn) {
+                    LockSupport.park(this);
+                }
+            } finally {
+                interpreter.switchContext(context);
+            }
+            if(failure != null) {
+                Throwable error = failure;
+                failure = null;
+                if(error instanceof Error) {
+                    throw (Error) error;
+                }
+                throw (RuntimeException) error;
+            }
+            return finished ? END : value;
+        }
+
+        /**
+         * Called by the body: hands the value to the caller and waits to be resumed.
+         */
+        void yieldValue(Object value) {
+            this.value = value;
+            bodyTurn = false;
+            LockSupport.unpark(caller);
+            while(!bodyTurn) {
+                LockSupport.park(this);
+            }
+            if(closing) {
+                throw CLOSED;
+            }
+        }
+
+        void close() {
+            if(finished) {
+                return;
+            }
+            if(!started) {
+                finished = true;
+                return;
+            }
+            closing = true;
+            resume();
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            try {
+                function.run(interpreter, receiver, arguments);
+            } catch (Closed closed) {
+                //close() unwound the body from its yield
+            } catch (Throwable error) {
+                failure = error;
+            }
+            value = null;
+            finished = true;
+            thread = null;
+            interpreter.endStrand();
+            bodyTurn = false;
+            LockSupport.unpark(caller);
+        }
+    }
+
+    /**
+     * Thrown from the yield a closed generator was waiting in, to unwind its body.
+     */
+    private static final class Closed extends RuntimeException {
+        Closed() {
+            super(null, null, false, false);
+        }
+    }
+}
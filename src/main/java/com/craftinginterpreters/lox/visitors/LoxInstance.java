@@ -2,17 +2,31 @@ package com.craftinginterpreters.lox.visitors;
 
 import com.craftinginterpreters.lox.RuntimeError;
 import com.craftinginterpreters.lox.Token;
+import com.craftinginterpreters.lox.UnassignedValue;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
 
 public class LoxInstance {
     private final LoxClass klass;
 
-    private final Map<String, Object> fields = new HashMap<>();
+    //instances of a class with a fixed layout keep their fields in slots and have no map
+    private final Map<String, Object> fields;
+    private final FieldLayout layout;
+    private final Object[] slots;
 
     public LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.layout = klass.layout;
+        if(layout == null) {
+            fields = new HashMap<>();
+            slots = null;
+        } else {
+            fields = null;
+            slots = new Object[layout.size()];
+            Arrays.fill(slots, UnassignedValue.Value);
+        }
     }
 
     public LoxClass getKlass()
@@ -20,17 +34,52 @@ public class LoxInstance {
         return  klass;
     }
 
+    /**
+     * The layout the instance keeps its fields in, null when it has a field map.
+     */
+    FieldLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * How many fields have been set on this instance.
+     */
+    int fieldCount() {
+        if(slots == null) {
+            return fields.size();
+        }
+        int count = 0;
+        for(Object value : slots) {
+            if(value != UnassignedValue.Value) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     @Override
     public String toString() {
         return  klass.name + " instance";
     }
 
-    public Object get(Token name)
+    /**
+     * The field, property or bound method {@code name}, whose symbol the parser numbered.
+     */
+    public Object get(Interpreter interpreter, Token name, int symbol)
     {
-        if(fields.containsKey(name.getLexeme())) {
+        if(slots != null) {
+            int slot = layout.slot(symbol);
+            if(slot >= 0 && slots[slot] != UnassignedValue.Value) {
+                return slots[slot];
+            }
+        } else if(fields.containsKey(name.getLexeme())) {
             return fields.get(name.getLexeme());
         }
-        LoxFunction method = klass.findMethod(name.getLexeme());
+        LoxProperty property = klass.findProperty(symbol);
+        if(property != null) {
+            return property.get(interpreter, this, name);
+        }
+        LoxFunction method = klass.findMethod(symbol);
         if(method != null)
         {
             return method.bind(this);
@@ -38,8 +87,38 @@ public class LoxInstance {
         throw new RuntimeError(name, "Undefined property '" + name.getLexeme() + "'.");
     }
 
-    public Object set(Token name, Object value)
+    /**
+     * The method a call of {@code instance.name(...)} runs, or null when a field of that name
+     * hides it or there is none.
+     */
+    LoxFunction findMethod(Token name, int symbol)
     {
+        if(slots != null) {
+            int slot = layout.slot(symbol);
+            return slot >= 0 && slots[slot] != UnassignedValue.Value ? null : klass.findMethod(symbol);
+        }
+        if(fields.containsKey(name.getLexeme())) {
+            return null;
+        }
+        return klass.findMethod(symbol);
+    }
+
+    public Object set(Interpreter interpreter, Token name, int symbol, Object value)
+    {
+        if(klass.hasProperties()) {
+            LoxProperty property = klass.findProperty(symbol);
+            if(property != null) {
+                return property.set(interpreter, this, name, value);
+            }
+        }
+        if(slots != null) {
+            int slot = layout.slot(symbol);
+            if(slot < 0) {
+                throw new RuntimeError(name, "'" + name.getLexeme() + "' is not in the layout of " + klass.name + ".");
+            }
+            slots[slot] = value;
+            return value;
+        }
         fields.put(name.getLexeme(), value);
         return value;
     }
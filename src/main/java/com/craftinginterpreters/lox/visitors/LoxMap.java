@@ -0,0 +1,118 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.RuntimeError;
+import com.craftinginterpreters.lox.Token;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A hash map from any Lox value to any Lox value. Strings and numbers are keys by value, instances
+ * by identity. Iteration follows insertion order.
+ */
+public class LoxMap {
+    private final Map<Object, Object> entries = new LinkedHashMap<>();
+
+    /**
+     * Lox strings may be {@link LoxString}s and {@code -0} equals {@code 0}; neither holds for the
+     * Java objects, so keys are brought into one form before they reach the map.
+     */
+    static Object key(Object key) {
+        key = LoxString.normalize(key);
+        if(key instanceof Double && (double) key == 0.0) {
+            return 0.0;
+        }
+        return key;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Object get(Object key) {
+        return entries.get(key(key));
+    }
+
+    public void set(Object key, Object value) {
+        entries.put(key(key), value);
+    }
+
+    public boolean has(Object key) {
+        return entries.containsKey(key(key));
+    }
+
+    public Object remove(Object key) {
+        return entries.remove(key(key));
+    }
+
+    public LoxArray keys() {
+        LoxArray keys = new LoxArray(entries.size());
+        for(Object key : entries.keySet()) {
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    public Object getMember(Token name) {
+        switch (name.getLexeme()) {
+            case "size":
+                return LoxValues.box(entries.size());
+            case "has":
+                return new NativeFunction("has", 1) {
+                    @Override
+                    public Object call1(Interpreter interpreter, Object key) {
+                        return LoxValues.bool(has(key));
+                    }
+                };
+            case "remove":
+                return new NativeFunction("remove", 1) {
+                    @Override
+                    public Object call1(Interpreter interpreter, Object key) {
+                        return remove(key);
+                    }
+                };
+            case "keys":
+                return new NativeFunction("keys", 0) {
+                    @Override
+                    public Object call0(Interpreter interpreter) {
+                        return keys();
+                    }
+                };
+            default:
+                throw new RuntimeError(name, "Undefined property '" + name.getLexeme() + "'.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toString(Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    /**
+     * The entries as text, shown as {@code {...}} where the map repeats inside itself; see
+     * {@link LoxArray#toString(Set)}.
+     */
+    String toString(Set<Object> enclosing) {
+        if(!enclosing.add(this)) {
+            return "{...}";
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append('{');
+        boolean first = true;
+        for(Map.Entry<Object, Object> entry : entries.entrySet()) {
+            if(!first) {
+                builder.append(", ");
+            }
+            first = false;
+            builder.append(Interpreter.stringify(entry.getKey(), enclosing))
+                    .append(": ")
+                    .append(Interpreter.stringify(entry.getValue(), enclosing));
+        }
+        builder.append('}');
+        enclosing.remove(this);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.RuntimeError;
+import com.craftinginterpreters.lox.Stmt;
+import com.craftinginterpreters.lox.Token;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * What {@code import "path";} binds: the top-level declarations of a module file, read as its
+ * members. The body runs the first time a member is read, not at the import, so a script only pays
+ * for the modules it uses.
+ */
+public final class LoxModule {
+    private final Path file;
+    private final List<Stmt> statements;
+    //the module's top-level scope, null until the body has run
+    private Environment scope;
+
+    LoxModule(Path file, List<Stmt> statements) {
+        this.file = file;
+        this.statements = statements;
+    }
+
+    public Object get(Interpreter interpreter, Token name) {
+        if(scope == null) {
+            //set first, so a module reading this one back while it runs sees what is defined so far
+            scope = new Environment();
+            interpreter.executeBlock(statements, scope);
+        }
+        if(!scope.declares(name.getLexeme())) {
+            throw new RuntimeError(name, "Module '" + file.getFileName() + "' has no member '" + name.getLexeme() + "'.");
+        }
+        return scope.get(name);
+    }
+
+    @Override
+    public String toString() {
+        return "<module " + file.getFileName() + ">";
+    }
+}
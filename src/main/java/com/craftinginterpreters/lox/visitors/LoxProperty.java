@@ -1,9 +1,13 @@
 package com.craftinginterpreters.lox.visitors;
 
+import com.craftinginterpreters.lox.RuntimeError;
+import com.craftinginterpreters.lox.Token;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 
+import java.util.Collections;
+
 @Data
 @EqualsAndHashCode(callSuper = true)
 public class LoxProperty extends LoxClassMember{
@@ -13,4 +17,22 @@ public class LoxProperty extends LoxClassMember{
     public final LoxFunction getter;
     @Getter
     public final LoxFunction setter;
+
+    /**
+     * Runs the getter on {@code receiver}, which is null for a static property.
+     */
+    Object get(Interpreter interpreter, LoxInstance receiver, Token token) {
+        if(getter == null) {
+            throw new RuntimeError(token, "Property '" + name + "' has no getter.");
+        }
+        return getter.call(interpreter, receiver, Collections.emptyList());
+    }
+
+    Object set(Interpreter interpreter, LoxInstance receiver, Token token, Object value) {
+        if(setter == null) {
+            throw new RuntimeError(token, "Property '" + name + "' is read-only.");
+        }
+        setter.call(interpreter, receiver, Collections.singletonList(value));
+        return value;
+    }
 }
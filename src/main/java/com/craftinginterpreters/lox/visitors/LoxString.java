@@ -0,0 +1,101 @@
+package com.craftinginterpreters.lox.visitors;
+
+/**
+ * A string built by concatenation. Appending to {@code s} copies nothing when {@code s} is the
+ * longest string built on its buffer so far: the right hand side is appended to the shared buffer
+ * and the result is a longer view of it. Building a string in a loop is therefore linear instead
+ * of quadratic. The text is only turned into a {@link String} when it is printed, compared or
+ * used as a key, and that copy is kept.
+ *
+ * Short results stay plain {@link String}s, which are cheaper to compare and hash.
+ */
+public final class LoxString implements CharSequence {
+    private static final int MIN_LENGTH = 64;
+
+    private final StringBuilder buffer;
+    private final int length;
+    private String flat;
+
+    private LoxString(StringBuilder buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    public static boolean isString(Object value) {
+        return value instanceof String || value instanceof LoxString;
+    }
+
+    /**
+     * The value to use wherever Lox strings must compare equal by content, e.g. as map keys.
+     */
+    public static Object normalize(Object value) {
+        return value instanceof LoxString ? value.toString() : value;
+    }
+
+    public static Object concat(Object left, CharSequence right) {
+        int total = ((CharSequence) left).length() + right.length();
+        if(left instanceof LoxString) {
+            LoxString l = (LoxString) left;
+            if(l.buffer.length() == l.length) {
+                //nobody has appended past us yet, so the buffer can simply grow
+                appendTo(l.buffer, right);
+                return new LoxString(l.buffer, total);
+            }
+        }
+        if(total < MIN_LENGTH) {
+            return left.toString() + right;
+        }
+        StringBuilder buffer = new StringBuilder(total * 2);
+        appendTo(buffer, (CharSequence) left);
+        appendTo(buffer, right);
+        return new LoxString(buffer, total);
+    }
+
+    private static void appendTo(StringBuilder buffer, CharSequence text) {
+        if(text instanceof LoxString) {
+            LoxString s = (LoxString) text;
+            buffer.append(s.buffer, 0, s.length);
+        } else {
+            buffer.append(text);
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if(index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        return buffer.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        return o instanceof LoxString && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if(flat == null) {
+            flat = buffer.substring(0, length);
+        }
+        return flat;
+    }
+}
@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox.visitors;
+
+/**
+ * Boxes the values arithmetic and comparisons produce. Integral numbers in
+ * [{@code lox.numbers.cacheLow}, {@code lox.numbers.cacheHigh}] (by default -128..1024) come from
+ * a table instead of a fresh {@code Double}, so loop counters and small sums stop allocating.
+ */
+public final class LoxValues {
+    static final int CACHE_LOW = Integer.getInteger("lox.numbers.cacheLow", -128);
+    static final int CACHE_HIGH = Integer.getInteger("lox.numbers.cacheHigh", 1024);
+
+    //integers beyond 2^53 are no longer exact, so they are printed like any other big double
+    private static final double MAX_EXACT_INTEGER = 9007199254740992.0;
+
+    private static final Double[] NUMBERS = new Double[Math.max(CACHE_HIGH - CACHE_LOW + 1, 0)];
+    private static final String[] NUMBER_TEXTS = new String[NUMBERS.length];
+
+    static {
+        for(int i = 0; i < NUMBERS.length; i++) {
+            NUMBERS[i] = (double) (CACHE_LOW + i);
+            NUMBER_TEXTS[i] = Integer.toString(CACHE_LOW + i);
+        }
+    }
+
+    private LoxValues() {
+    }
+
+    public static Double box(double value) {
+        int i = (int) value;
+        //-0.0 == 0 too, but it must keep its sign
+        if(i == value && i >= CACHE_LOW && i <= CACHE_HIGH
+                && (i != 0 || Double.doubleToRawLongBits(value) == 0L)) {
+            return NUMBERS[i - CACHE_LOW];
+        }
+        return value;
+    }
+
+    /**
+     * How Lox prints a number: integral values as plain integers, everything else as the shortest
+     * decimal that reads back as the same double.
+     */
+    public static String toString(double value) {
+        long integral = (long) value;
+        if(integral == value && Math.abs(value) < MAX_EXACT_INTEGER) {
+            if(integral == 0 && Double.doubleToRawLongBits(value) != 0L) {
+                return "-0";
+            }
+            if(integral >= CACHE_LOW && integral <= CACHE_HIGH) {
+                return NUMBER_TEXTS[(int) integral - CACHE_LOW];
+            }
+            return Long.toString(integral);
+        }
+        return Ryu.toString(value);
+    }
+
+    public static Boolean bool(boolean value) {
+        return value ? Boolean.TRUE : Boolean.FALSE;
+    }
+}
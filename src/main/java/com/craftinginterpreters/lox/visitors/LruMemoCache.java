@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Evicts the least recently used result.
+ */
+class LruMemoCache extends MemoCache {
+    private final LinkedHashMap<Object, Object> entries;
+
+    LruMemoCache(int capacity) {
+        super(capacity);
+        entries = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                if(size() > LruMemoCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    Object get(Object key) {
+        Object value = entries.get(key);
+        if(value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    @Override
+    void put(Object key, Object value) {
+        entries.put(key, value);
+    }
+
+    @Override
+    int size() {
+        return entries.size();
+    }
+
+    @Override
+    String getPolicy() {
+        return "lru";
+    }
+}
@@ -0,0 +1,153 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file mapped read-only into memory. A single mapping is limited to 2 GB, so larger files are
+ * mapped as a row of 1 GB regions and every offset is a long. The operating system pages the file
+ * in as it is touched; searching and counting stream over the mapping without reading it into the
+ * heap.
+ */
+public final class MappedFile {
+    private static final int REGION_BITS = 30;
+    private static final long REGION_SIZE = 1L << REGION_BITS;
+    //scans copy the mapping out in windows of this size, which is faster than reading it bytewise
+    private static final int WINDOW_SIZE = 1 << 16;
+
+    private final MappedByteBuffer[] regions;
+    private final long size;
+
+    MappedFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) >>> REGION_BITS)];
+            for(int i = 0; i < regions.length; i++) {
+                long start = i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+            }
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * The byte at {@code index}, from 0 to 255.
+     */
+    public int byteAt(long index) {
+        check(index, 1);
+        return get(index) & 0xff;
+    }
+
+    /**
+     * {@code length} bytes from {@code start}, decoded as UTF-8.
+     */
+    public String text(long start, int length) {
+        check(start, length);
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < length; ) {
+            MappedByteBuffer region = regions[(int) ((start + i) >>> REGION_BITS)];
+            int offset = (int) ((start + i) & (REGION_SIZE - 1));
+            int n = Math.min(length - i, region.limit() - offset);
+            for(int j = 0; j < n; j++) {
+                bytes[i + j] = region.get(offset + j);
+            }
+            i += n;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The offset of the first occurrence of {@code needle} at or after {@code from}, or -1.
+     */
+    public long indexOf(String needle, long from) {
+        byte[] bytes = needle.getBytes(StandardCharsets.UTF_8);
+        return find(bytes, Math.max(from, 0));
+    }
+
+    /**
+     * How many times {@code needle} occurs, counting matches that do not overlap.
+     */
+    public long count(String needle) {
+        byte[] bytes = needle.getBytes(StandardCharsets.UTF_8);
+        if(bytes.length == 0) {
+            return 0;
+        }
+        if(bytes.length == 1) {
+            return countByte(bytes[0]);
+        }
+        long count = 0;
+        for(long at = find(bytes, 0); at >= 0; at = find(bytes, at + bytes.length)) {
+            count++;
+        }
+        return count;
+    }
+
+    private long countByte(byte b) {
+        long count = 0;
+        byte[] window = new byte[WINDOW_SIZE];
+        for(MappedByteBuffer region : regions) {
+            ByteBuffer view = region.duplicate();
+            while(view.hasRemaining()) {
+                int n = Math.min(window.length, view.remaining());
+                view.get(window, 0, n);
+                for(int i = 0; i < n; i++) {
+                    if(window[i] == b) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private long find(byte[] needle, long from) {
+        long last = size - needle.length;
+        byte first = needle[0];
+        byte[] window = new byte[WINDOW_SIZE];
+        for(long start = from; start <= last; ) {
+            ByteBuffer view = regions[(int) (start >>> REGION_BITS)].duplicate();
+            view.position((int) (start & (REGION_SIZE - 1)));
+            int n = (int) Math.min(Math.min(window.length, view.remaining()), last - start + 1);
+            view.get(window, 0, n);
+            for(int i = 0; i < n; i++) {
+                if(window[i] == first && matches(needle, start + i)) {
+                    return start + i;
+                }
+            }
+            start += n;
+        }
+        return -1;
+    }
+
+    private boolean matches(byte[] needle, long at) {
+        for(int i = 1; i < needle.length; i++) {
+            if(get(at + i) != needle[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte get(long index) {
+        return regions[(int) (index >>> REGION_BITS)].get((int) (index & (REGION_SIZE - 1)));
+    }
+
+    private void check(long start, long length) {
+        if(start < 0 || length < 0 || start + length > size) {
+            throw new IndexOutOfBoundsException("Range " + start + "+" + length + " is outside the file of size " + size + ".");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<mapped file of " + size + " bytes>";
+    }
+}
@@ -0,0 +1,73 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.Symbols;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Members of a class indexed by symbol. The array only covers the symbols from the lowest to the
+ * highest the class uses, so its size follows the class, not how many names the process has seen.
+ */
+final class MemberTable<T> {
+    private static final MemberTable<?> EMPTY = new MemberTable<>(0, new Object[0]);
+
+    private final int base;
+    private final Object[] entries;
+
+    private MemberTable(int base, Object[] entries) {
+        this.base = base;
+        this.entries = entries;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> MemberTable<T> empty() {
+        return (MemberTable<T>) EMPTY;
+    }
+
+    /**
+     * The inherited members with the class's own added over them.
+     */
+    static <T> MemberTable<T> extend(MemberTable<T> inherited, Map<String, ? extends T> own) {
+        if(own.isEmpty()) {
+            return inherited;
+        }
+        int low = inherited.entries.length == 0 ? Integer.MAX_VALUE : inherited.base;
+        int high = inherited.base + inherited.entries.length;
+        for(String member : own.keySet()) {
+            int symbol = Symbols.intern(member);
+            low = Math.min(low, symbol);
+            high = Math.max(high, symbol + 1);
+        }
+        Object[] entries = new Object[high - low];
+        if(!inherited.isEmpty()) {
+            System.arraycopy(inherited.entries, 0, entries, inherited.base - low, inherited.entries.length);
+        }
+        for(Map.Entry<String, ? extends T> member : own.entrySet()) {
+            entries[Symbols.find(member.getKey()) - low] = member.getValue();
+        }
+        return new MemberTable<>(low, entries);
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int symbol) {
+        int index = symbol - base;
+        return index >= 0 && index < entries.length ? (T) entries[index] : null;
+    }
+
+    /**
+     * A copy without the member of this symbol, or this table when it has none.
+     */
+    MemberTable<T> without(int symbol) {
+        if(get(symbol) == null) {
+            return this;
+        }
+        Object[] copy = Arrays.copyOf(entries, entries.length);
+        copy[symbol - base] = null;
+        return new MemberTable<>(base, copy);
+    }
+
+    boolean isEmpty() {
+        return entries.length == 0;
+    }
+}
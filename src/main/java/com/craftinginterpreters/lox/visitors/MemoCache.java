@@ -0,0 +1,43 @@
+package com.craftinginterpreters.lox.visitors;
+
+/**
+ * A bounded cache of call results. Subclasses decide what to evict; this class keeps the counters
+ * reported through {@link ExecutionMetrics}.
+ */
+abstract class MemoCache {
+    protected final int capacity;
+    protected long hits;
+    protected long misses;
+    protected long evictions;
+
+    protected MemoCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the cached result, or null when the key is absent
+     */
+    abstract Object get(Object key);
+
+    abstract void put(Object key, Object value);
+
+    abstract int size();
+
+    abstract String getPolicy();
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    long getEvictions() {
+        return evictions;
+    }
+}
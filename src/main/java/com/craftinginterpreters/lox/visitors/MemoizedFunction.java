@@ -0,0 +1,54 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.util.List;
+
+/**
+ * What {@code memoize(fn, capacity)} returns: calls {@code fn} once per distinct argument list
+ * and answers repeats from a bounded cache. Only worth it for functions without side effects.
+ */
+public class MemoizedFunction implements LoxCallable {
+    //results are cached by value, so nil needs a stand-in to tell it apart from a miss
+    private static final Object NIL = new Object();
+
+    private final LoxCallable function;
+    private final MemoCache cache;
+
+    MemoizedFunction(LoxCallable function, MemoCache cache) {
+        this.function = function;
+        this.cache = cache;
+    }
+
+    MemoCache getCache() {
+        return cache;
+    }
+
+    String getName() {
+        return function instanceof LoxFunction ? ((LoxFunction) function).getName() : function.toString();
+    }
+
+    @Override
+    public int arity() {
+        return function.arity();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return call(cache, function, interpreter, arguments);
+    }
+
+    static Object call(MemoCache cache, LoxCallable function, Interpreter interpreter, List<Object> arguments) {
+        ArgumentKey key = new ArgumentKey(arguments);
+        Object result = cache.get(key);
+        if(result == null) {
+            result = function.call(interpreter, arguments);
+            cache.put(key, result == null ? NIL : result);
+            return result;
+        }
+        return result == NIL ? null : result;
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
@@ -0,0 +1,25 @@
+package com.craftinginterpreters.lox.visitors;
+
+/**
+ * Keeps everything printed in memory, for embedding the interpreter and for tests.
+ */
+public class MemoryOutputSink implements OutputSink {
+    private final StringBuilder text = new StringBuilder();
+
+    @Override
+    public void println(CharSequence line) {
+        text.append(line).append('\n');
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    public String getText() {
+        return text.toString();
+    }
+
+    public void clear() {
+        text.setLength(0);
+    }
+}
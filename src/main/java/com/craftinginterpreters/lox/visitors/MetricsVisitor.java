@@ -0,0 +1,355 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.*;
+
+/**
+ * Wraps an {@link Interpreter}: every node the interpreter dispatches comes through here first, is
+ * timed and counted into {@link ExecutionMetrics}, and is then handed to the interpreter's own
+ * visit method. Installed by {@link Interpreter#setMetrics(ExecutionMetrics)}; when metrics are off
+ * the interpreter dispatches to itself and none of this runs.
+ */
+class MetricsVisitor implements ExprVisitor<Object>, StmtVisitor<Void> {
+    private final Interpreter interpreter;
+    private final ExecutionMetrics metrics;
+
+    //time spent in the children of the node currently running, and the same for its ancestors
+    private long childNanos;
+    private long[] outerChildNanos = new long[64];
+    private int depth;
+
+    MetricsVisitor(Interpreter interpreter, ExecutionMetrics metrics) {
+        this.interpreter = interpreter;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object visitLiteralExpr(Expr.Literal expr) {
+        long start = begin();
+        try {
+            return interpreter.visitLiteralExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitUnaryExpr(Expr.Unary expr) {
+        long start = begin();
+        try {
+            return interpreter.visitUnaryExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitBinaryExpr(Expr.Binary expr) {
+        long start = begin();
+        try {
+            return interpreter.visitBinaryExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitGroupingExpr(Expr.Grouping expr) {
+        long start = begin();
+        try {
+            return interpreter.visitGroupingExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitVariableExpr(Expr.Variable expr) {
+        long start = begin();
+        try {
+            return interpreter.visitVariableExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitAssignmentExpr(Expr.Assignment expr) {
+        long start = begin();
+        try {
+            return interpreter.visitAssignmentExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitLogicalExpr(Expr.Logical expr) {
+        long start = begin();
+        try {
+            return interpreter.visitLogicalExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitCallExpr(Expr.Call expr) {
+        long start = begin();
+        try {
+            return interpreter.visitCallExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitAnonymousFunctionExpr(Expr.AnonymousFunction expr) {
+        long start = begin();
+        try {
+            return interpreter.visitAnonymousFunctionExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitSetExpr(Expr.Set expr) {
+        long start = begin();
+        try {
+            return interpreter.visitSetExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitThisExpr(Expr.This expr) {
+        long start = begin();
+        try {
+            return interpreter.visitThisExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitSuperExpr(Expr.Super expr) {
+        long start = begin();
+        try {
+            return interpreter.visitSuperExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitArrayExpr(Expr.Array expr) {
+        long start = begin();
+        try {
+            return interpreter.visitArrayExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        long start = begin();
+        try {
+            return interpreter.visitIndexExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitIndexSetExpr(Expr.IndexSet expr) {
+        long start = begin();
+        try {
+            return interpreter.visitIndexSetExpr(expr);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Object visitGetExpr(Expr.Get expr) {
+        long start = begin();
+        try {
+            Object object = interpreter.evaluate(expr.getOperand());
+            metrics.recordReceiver(expr, object);
+            return interpreter.getMember(expr, object);
+        } finally {
+            end(expr, start);
+        }
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        long start = begin();
+        try {
+            return interpreter.visitPrintStmt(stmt);
+        } finally {
+            end(stmt, start);
+        }
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        long start = begin();
+        try {
+            return interpreter.visitExpressionStmt(stmt);
+        } finally {
+            end(stmt, start);
+        }
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        long start = begin();
+        try {
+            return interpreter.visitVarStmt(stmt);
+        } finally {
+            end(stmt, start);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        long start = begin();
+        try {
+            return interpreter.visitBlockStmt(stmt);
+        } finally {
+            end(stmt, start);
+        }
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        long start = begin();
+        try {
+            return interpreter.visitIfStmt(stmt);
+        } finally {
+            end(stmt, start);
+        }
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        long start = begin();
+        try {
+            return interpreter.visitWhileStmt(stmt);
+        } finally {
+            end(stmt, start);
+        }
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        long start = begin();
+        try {
+            return interpreter.visitForStmt(stmt);
+        } finally {
+            end(stmt, start);
+        }
+    }
+
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        long start = begin();
+        try {
+            return interpreter.visitForInStmt(stmt);
+        } finally {
+            end(stmt, start);
+        }
+    }
+
+    @Override
+    public Void visitKeywordStmt(Stmt.Keyword stmt) {
+        long start = begin();
+        try {
+            return interpreter.visitKeywordStmt(stmt);
+        } finally {
+            end(stmt, start);
+        }
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        long start = begin();
+        try {
+            return interpreter.visitFunctionStmt(stmt);
+        } finally {
+            end(stmt, start);
+        }
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        long start = begin();
+        try {
+            return interpreter.visitReturnStmt(stmt);
+        } finally {
+            end(stmt, start);
+        }
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        //not timed: the time it takes is the caller's, spent while this strand waits
+        return interpreter.visitYieldStmt(stmt);
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        long start = begin();
+        try {
+            return interpreter.visitClassStmt(stmt);
+        } finally {
+            end(stmt, start);
+        }
+    }
+
+    @Override
+    public Void visitPropertyStmt(Stmt.Property stmt) {
+        return interpreter.visitPropertyStmt(stmt);
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return interpreter.visitImportStmt(stmt);
+    }
+
+    /**
+     * Swaps the nesting of the nodes being timed with the one kept in the context, so a generator
+     * and its caller each close the nodes they opened.
+     */
+    void switchContext(ExecutionContext context) {
+        long nanos = childNanos;
+        childNanos = context.childNanos;
+        context.childNanos = nanos;
+        long[] outer = outerChildNanos;
+        outerChildNanos = context.outerChildNanos;
+        context.outerChildNanos = outer;
+        int nesting = depth;
+        depth = context.timingDepth;
+        context.timingDepth = nesting;
+    }
+
+    private long begin() {
+        if(depth == outerChildNanos.length) {
+            long[] grown = new long[Math.max(64, depth * 2)];
+            System.arraycopy(outerChildNanos, 0, grown, 0, depth);
+            outerChildNanos = grown;
+        }
+        outerChildNanos[depth++] = childNanos;
+        childNanos = 0;
+        return System.nanoTime();
+    }
+
+    private void end(Object node, long start) {
+        long elapsed = System.nanoTime() - start;
+        metrics.record(node, interpreter.getCallStack().peek(), elapsed, elapsed - childNanos);
+        childNanos = outerChildNanos[--depth] + elapsed;
+    }
+}
@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox.visitors;
+
+import com.craftinginterpreters.lox.Parser;
+import com.craftinginterpreters.lox.Scanner;
+import com.craftinginterpreters.lox.Stmt;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scans and parses module files, once per process: every interpreter importing a file gets the same
+ * statements for as long as the file is unchanged. Each interpreter still resolves them itself,
+ * since what the resolver finds is kept by the interpreter.
+ */
+final class ModuleLoader {
+    private static final ConcurrentHashMap<Path, Parsed> parsed = new ConcurrentHashMap<>();
+
+    private ModuleLoader() {
+    }
+
+    /**
+     * The statements of the module in the file, or null when it has syntax errors, which the
+     * parser has already reported.
+     */
+    static List<Stmt> load(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        Parsed cached = parsed.get(file);
+        if(cached != null && cached.size == size && cached.modified == modified) {
+            return cached.statements;
+        }
+        String source = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        //a statement that failed to parse is left in as null
+        if(statements == null || statements.contains(null)) {
+            return null;
+        }
+        parsed.put(file, new Parsed(size, modified, statements));
+        return statements;
+    }
+
+    private static final class Parsed {
+        final long size;
+        final long modified;
+        final List<Stmt> statements;
+
+        Parsed(long size, long modified, List<Stmt> statements) {
+            this.size = size;
+            this.modified = modified;
+            this.statements = statements;
+        }
+    }
+}
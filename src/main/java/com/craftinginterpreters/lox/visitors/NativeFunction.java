@@ -0,0 +1,67 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.util.List;
+
+/**
+ * Base of the functions implemented in Java. A native overrides the {@code callN} method that
+ * matches its arity; calls made with an argument list are routed there as well.
+ */
+public abstract class NativeFunction implements LoxCallable {
+    private final String name;
+    private final int arity;
+
+    protected NativeFunction(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        switch (arguments.size()) {
+            case 0: return call0(interpreter);
+            case 1: return call1(interpreter, arguments.get(0));
+            case 2: return call2(interpreter, arguments.get(0), arguments.get(1));
+            case 3: return call3(interpreter, arguments.get(0), arguments.get(1), arguments.get(2));
+            default: throw unsupported(arguments.size());
+        }
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        throw unsupported(0);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        throw unsupported(1);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        throw unsupported(2);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        throw unsupported(3);
+    }
+
+    //the interpreter checks the argument count against arity() before calling, so this means the
+    //native does not override the method for its own arity
+    private IllegalStateException unsupported(int count) {
+        return new IllegalStateException("Native '" + name + "' of arity " + arity +
+                " does not implement calls with " + count + " arguments.");
+    }
+
+    @Override
+    public String toString() { return "<native fn>"; }
+}
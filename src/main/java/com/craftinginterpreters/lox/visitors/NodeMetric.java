@@ -0,0 +1,11 @@
+package com.craftinginterpreters.lox.visitors;
+
+import lombok.Data;
+
+@Data
+public class NodeMetric {
+    private final String node;
+    private final long count;
+    private final double totalMillis;
+    private final double selfMillis;
+}
@@ -0,0 +1,20 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.io.Closeable;
+import java.io.Flushable;
+
+/**
+ * Where {@code print} writes. Sinks may hold lines back; the interpreter flushes its sink whenever
+ * a run of {@link Interpreter#interpret} ends.
+ */
+public interface OutputSink extends Flushable, Closeable {
+    void println(CharSequence text);
+
+    @Override
+    void flush();
+
+    @Override
+    default void close() {
+        flush();
+    }
+}
@@ -2,6 +2,8 @@ package com.craftinginterpreters.lox.visitors;
 
 import com.craftinginterpreters.lox.*;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
@@ -16,15 +18,63 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
 
     private int[] contextEnabledOps = noContextKeywords;
     private FunctionType currentFunctionType = FunctionType.NONE;
+    private boolean insideSubclass = false;
+    //the token declaring each name in scope, to mark the ones closures capture
+    private final Stack<Map<String, Token>> scopeDeclarations = new Stack<>();
+
+    //purity analysis and loop-invariant calls, concluded by finishAnalysis after every resolve call.
+    //A function is pure when it only reads its own locals and calls pure functions through names
+    //that are never rebound, so its result depends on nothing but its arguments.
+    private final Stack<Map<String, Stmt.Function>> scopeFunctions = new Stack<>();
+    private final Map<String, Stmt.Function> globalFunctions;
+    private final Set<String> reboundGlobals;
+    private final Set<Stmt.Function> reboundFunctions;
+    private final Set<VariableKey> capturedVariables;
+    private final List<FunctionInfo> functions;
+    private final List<LoopInfo> loops;
+    //where the paths of imports are relative to, null for the directory of the script
+    private final Path directory;
+    private FunctionInfo currentFunction;
+    private Deque<LoopInfo> activeLoops = new ArrayDeque<>();
+    //the expression of the expression statement being resolved, whose value nothing reads
+    private Expr discarded;
 
     public Resolver(Interpreter interpreter) {
         this.interpreter = interpreter;
+        this.globalFunctions = new HashMap<>();
+        this.reboundGlobals = new HashSet<>();
+        this.reboundFunctions = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.capturedVariables = new HashSet<>();
+        this.functions = new ArrayList<>();
+        this.loops = new ArrayList<>();
+        this.directory = null;
+    }
+
+    /**
+     * Resolves a module for the resolver of the code importing it. The module starts from empty
+     * scopes, but what it finds goes into the importer's analysis, which covers both.
+     */
+    private Resolver(Resolver importer, Path directory) {
+        this.interpreter = importer.interpreter;
+        this.globalFunctions = importer.globalFunctions;
+        this.reboundGlobals = importer.reboundGlobals;
+        this.reboundFunctions = importer.reboundFunctions;
+        this.capturedVariables = importer.capturedVariables;
+        this.functions = importer.functions;
+        this.loops = importer.loops;
+        this.directory = directory;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        if(!declaresNames(stmt.getStatements())) {
+            //nothing would live in its scope, so the block runs in the enclosing one
+            interpreter.resolveInlineBlock(stmt);
+            resolveStatements(stmt.getStatements());
+            return null;
+        }
         beginScope();
-        resolve(stmt.getStatements());
+        resolveStatements(stmt.getStatements());
         endScope();
         return  null;
     }
@@ -32,6 +82,9 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
     @Override
     public Void visitVarStmt(Stmt.Var statement) {
         declare(statement.getName());
+        if(scopes.isEmpty()) {
+            reboundGlobals.add(statement.getName().getLexeme());
+        }
         if(statement.getExpression() != null) {
             resolve(statement.getExpression());
         }
@@ -54,6 +107,7 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
             }
         }
         resolveLocal(expr, expr.getName());
+        recordRead(expr.getName());
         return  null;
     }
 
@@ -61,6 +115,7 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
     public Void visitAssignmentExpr(Expr.Assignment expr) {
         resolve(expr.getExpression());
         resolveLocal(expr, expr.getIdentifier());
+        recordAssignment(expr.getIdentifier());
         return  null;
     }
 
@@ -68,36 +123,78 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
     public Void visitClassStmt(Stmt.Class stmt) {
         declare(stmt.getName());
         define(stmt.getName());
-        beginScope();
-        scopes.peek().put("this", true);
+        markImpure();
+        if(scopes.isEmpty()) {
+            reboundGlobals.add(stmt.getName().getLexeme());
+        }
+        if(stmt.getSuperclass() != null) {
+            if(stmt.getSuperclass().getName().getLexeme().equals(stmt.getName().getLexeme())) {
+                Lox.report(
+                        stmt.getSuperclass().getName().getLine(),
+                        stmt.getSuperclass().getName().getLexeme(),
+                        "A class can't inherit from itself."
+                );
+            }
+            resolve(stmt.getSuperclass());
+        }
+        boolean enclosingSubclass = insideSubclass;
+        insideSubclass = stmt.getSuperclass() != null;
         for(Stmt.Function fn : stmt.getMethods())
         {
-            FunctionType functionType = fn.getName().getLexeme().equals("init")
-                    ? FunctionType.INITIALIZER
-                    : FunctionType.METHOD;
-            resolveFunction(fn, fn.getParams(), fn.getBody(), functionType);
+            resolveFunction(fn, fn.getParams(), fn.getBody(), methodType(fn));
+        }
+        for(Stmt.Property property : stmt.getProperties()) {
+            property.accept(this);
+        }
+        insideSubclass = enclosingSubclass;
+        return null;
+    }
+
+    @Override
+    public Void visitPropertyStmt(Stmt.Property stmt) {
+        //accessors are methods without a name of their own; static ones have no 'this'
+        FunctionType functionType = stmt.isStatic() ? FunctionType.STATIC : FunctionType.METHOD;
+        if(stmt.getGetter() != null) {
+            resolveFunction(stmt.getGetter(), stmt.getGetter().getParams(), stmt.getGetter().getBody(), functionType);
+        }
+        if(stmt.getSetter() != null) {
+            resolveFunction(stmt.getSetter(), stmt.getSetter().getParams(), stmt.getSetter().getBody(), functionType);
         }
-        endScope();
         return null;
     }
 
+    static FunctionType methodType(Stmt.Function method) {
+        if(method.isStatic()) {
+            return FunctionType.STATIC;
+        }
+        return method.getName().getLexeme().equals("init")
+                ? FunctionType.INITIALIZER
+                : FunctionType.METHOD;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function statement) {
         declare(statement.getName());
         define(statement.getName());
+        markImpure();
+        bindFunction(statement);
         resolveFunction(statement, statement.getParams(), statement.getBody(), FunctionType.NAMED);
         return  null;
     }
 
     @Override
     public Void visitAnonymousFunctionExpr(Expr.AnonymousFunction expr) {
+        markImpure();
         resolveFunction(expr, expr.getParams(), expr.getBody(), FunctionType.ANONYMOUS);
         return  null;
     }
 
     @Override
     public Void visitExpressionStmt(Stmt.Expression statement) {
+        Expr prev = discarded;
+        discarded = statement.getExpression();
         resolve(statement.getExpression());
+        discarded = prev;
         return  null;
     }
 
@@ -112,6 +209,7 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
 
     @Override
     public Void visitPrintStmt(Stmt.Print statement) {
+        markImpure();
         resolve(statement.getExpression());
         return  null;
     }
@@ -132,16 +230,76 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
                         "Initializers are not allowed to return a value. Only an empty return value is allowed.");
             }
             resolve(stmt.getExpression());
+            if(stmt.getExpression() instanceof Expr.Call && currentFunctionType != FunctionType.INITIALIZER) {
+                //nothing is left to do in this function once the call returns
+                interpreter.resolveTailCall((Expr.Call) stmt.getExpression());
+            }
         }
         return  null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        Path base = directory != null ? directory : interpreter.getScriptDirectory();
+        Path file = base.resolve((String) stmt.getPath().getLiteral()).toAbsolutePath().normalize();
+        LoxModule module = interpreter.findModule(file);
+        if(module == null) {
+            List<Stmt> statements;
+            try {
+                statements = ModuleLoader.load(file);
+            } catch (IOException e) {
+                Lox.report(
+                        stmt.getPath().getLine(),
+                        stmt.getPath().getLexeme(),
+                        "Could not read module '" + stmt.getPath().getLiteral() + "'.");
+                return null;
+            }
+            if(statements == null) {
+                return null;
+            }
+            module = new LoxModule(file, statements);
+            //registered before its body is resolved, so imports that go round in a circle stop here
+            interpreter.resolveModule(file, module);
+            new Resolver(this, file.getParent()).resolveModule(statements);
+        }
+        interpreter.resolveImport(stmt, module);
+        declare(stmt.getName());
+        define(stmt.getName());
+        return null;
+    }
+
+    private void resolveModule(List<Stmt> statements) {
+        //the top level of a module is a scope of its own, as if it were the body of a function
+        resolveFunction(statements, Collections.emptyList(), statements, FunctionType.MODULE);
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        if(currentFunction == null || currentFunctionType == FunctionType.INITIALIZER
+                || currentFunctionType == FunctionType.MODULE) {
+            Lox.report(
+                    stmt.getKeyword().getLine(),
+                    stmt.getKeyword().getLexeme(),
+                    "'yield' is only allowed inside a function that is not an initializer.");
+        } else {
+            //a function that yields is a generator: calling it makes an iterator over its yields
+            currentFunction.generator = true;
+        }
+        markImpure();
+        if(stmt.getValue() != null) {
+            resolve(stmt.getValue());
+        }
+        return null;
+    }
+
     @Override
     public Void visitWhileStmt(Stmt.While statement) {
         int[] prev = contextEnabledOps;
         contextEnabledOps = ContextualOps.getLoopContextOps(prev);
+        beginLoop(statement, scopes.size());
         resolve(statement.getCondition());
         resolve(statement.getBody());
+        endLoop();
         contextEnabledOps = prev;
         return  null;
     }
@@ -150,15 +308,25 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
     public Void visitForStmt(Stmt.For statement) {
         int[] prev = contextEnabledOps;
         contextEnabledOps = ContextualOps.getLoopContextOps(prev);
+        int loopScopes = scopes.size();
         if(statement.getInitializer() != null) {
             beginScope();
             resolve(statement.getInitializer());
         }
+        //the initializer runs once, everything after it runs every iteration
+        beginLoop(statement, loopScopes);
+        activeLoops.peek().counted = countedShape(statement);
+        activeLoops.peek().resolvingHeader = true;
         if(statement.getCondition() != null)
             resolve(statement.getCondition());
-        if(statement.getIncrement() != null)
+        if(statement.getIncrement() != null) {
+            activeLoops.peek().resolvingIncrement = true;
             resolve(statement.getIncrement());
+            activeLoops.peek().resolvingIncrement = false;
+        }
+        activeLoops.peek().resolvingHeader = false;
         resolve(statement.getBody());
+        endLoop();
         contextEnabledOps = prev;
         if(statement.getInitializer() != null) {
             endScope();
@@ -166,6 +334,25 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
         return  null;
     }
 
+    @Override
+    public Void visitForInStmt(Stmt.ForIn statement) {
+        resolve(statement.getIterable());
+        //taking the next element moves the iterator on
+        markImpure();
+        int[] prev = contextEnabledOps;
+        contextEnabledOps = ContextualOps.getLoopContextOps(prev);
+        //the variable is declared afresh every iteration, in a scope of the loop's own
+        beginLoop(statement, scopes.size());
+        beginScope();
+        declare(statement.getName());
+        define(statement.getName());
+        resolve(statement.getBody());
+        endScope();
+        endLoop();
+        contextEnabledOps = prev;
+        return  null;
+    }
+
     @Override
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.getLeft());
@@ -178,6 +365,7 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
         resolve(expr.getCallee());
         for(Expr argument : expr.getArguments())
             resolve(argument);
+        recordCall(expr);
         return  null;
     }
 
@@ -219,6 +407,7 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
     @Override
     public Void visitGetExpr(Expr.Get expr) {
         //properties are looked up dynamically so no need to resolve
+        markImpure();
         resolve(expr.getOperand());
         return null;
     }
@@ -226,6 +415,7 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
     @Override
     public Void visitSetExpr(Expr.Set expr) {
         //the value has to exist 1st
+        markImpure();
         resolve(expr.getValue());
         resolve(expr.getOperand());
         return null;
@@ -236,11 +426,54 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
         if(!ContextualOps.has(contextEnabledOps, ContextualOps.THIS)) {
             Lox.error("The 'this' keyword is only allowed in the body of a class method");
         }
+        markImpure();
+        resolveLocal(expr, expr.getKeyword());
+        return  null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        if(!ContextualOps.has(contextEnabledOps, ContextualOps.THIS)) {
+            Lox.error("The 'super' keyword is only allowed in the body of a class method");
+        } else if(!insideSubclass) {
+            Lox.error("The 'super' keyword is only allowed in a class with a superclass");
+        }
+        markImpure();
         resolveLocal(expr, expr.getKeyword());
         return  null;
     }
 
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        markImpure();
+        for(Expr element : expr.getElements())
+            resolve(element);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        markImpure();
+        resolve(expr.getOperand());
+        resolve(expr.getIndex());
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        markImpure();
+        resolve(expr.getValue());
+        resolve(expr.getOperand());
+        resolve(expr.getIndex());
+        return null;
+    }
+
     public void resolve(List<Stmt> statements) {
+        resolveStatements(statements);
+        finishAnalysis();
+    }
+
+    private void resolveStatements(List<Stmt> statements) {
         for(Stmt s : statements)
             resolve(s);
     }
@@ -254,13 +487,41 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
     }
 
     private void resolveLocal(Expr expr, Token name) {
-        for(int i=scopes.size() - 1; i >= 0; i--) {
-            Map<String, Boolean> scope = scopes.get(i);
-            if(scope.containsKey(name.getLexeme())) {
-                int index = scopes.size() - 1 - i;
-                interpreter.resolve(expr, index);
+        int scopeIndex = scopeIndexOf(name.getLexeme());
+        if(scopeIndex < 0) {
+            return;
+        }
+        if(currentFunction == null || scopeIndex >= currentFunction.base) {
+            interpreter.resolve(expr, scopes.size() - 1 - scopeIndex);
+            return;
+        }
+        //declared outside the function: reached through the cell it captured when it was created,
+        //in the environment just outside its own
+        capture(currentFunction, name.getLexeme(), scopeIndex);
+        interpreter.resolve(expr, scopes.size() - currentFunction.base);
+    }
+
+    /**
+     * Makes the function capture the variable declared in the given scope, and every function
+     * between it and that scope too, so each can hand the cell on to the closures it creates.
+     */
+    private void capture(FunctionInfo function, String name, int scopeIndex) {
+        if(function.upvalues.containsKey(name)) {
+            return;
+        }
+        FunctionInfo enclosing = function.enclosing;
+        int distance;
+        if(enclosing == null || scopeIndex >= enclosing.base) {
+            distance = function.base - 1 - scopeIndex;
+            Token declaration = scopeDeclarations.get(scopeIndex).get(name);
+            if(declaration != null) {
+                interpreter.resolveCapturedDeclaration(declaration);
             }
+        } else {
+            capture(enclosing, name, scopeIndex);
+            distance = function.base - enclosing.base;
         }
+        function.upvalues.put(name, new Upvalue(name, distance));
     }
 
     private void resolveFunction(Object function, List<Token> params, List<Stmt> body, FunctionType functionType) {
@@ -268,23 +529,375 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
         contextEnabledOps = ContextualOps.getFunctionContextOps(functionType);
         FunctionType tempFnType = currentFunctionType;
         currentFunctionType = functionType;
+        FunctionInfo enclosingFunction = currentFunction;
+        Deque<LoopInfo> enclosingLoops = activeLoops;
+        //methods are reached through instances, never through a name, so they are never pure
+        currentFunction = new FunctionInfo(functionType == FunctionType.NAMED ? (Stmt.Function) function : null,
+                enclosingFunction, scopes.size());
+        functions.add(currentFunction);
+        activeLoops = new ArrayDeque<>();
         beginScope();
+        if(functionType == FunctionType.METHOD || functionType == FunctionType.INITIALIZER) {
+            //the receiver sits in the method's own frame, next to its parameters
+            scopes.peek().put("this", true);
+            if(insideSubclass) {
+                scopes.peek().put("super", true);
+            }
+        }
         for(Token param : params) {
             declare(param);
             define(param);
         }
-        resolve(body);
+        resolveStatements(body);
         endScope();
+        if(currentFunction.generator) {
+            interpreter.resolveGenerator(body);
+        }
+        if(!currentFunction.upvalues.isEmpty()) {
+            interpreter.resolveUpvalues(body, new ArrayList<>(currentFunction.upvalues.values()));
+        }
+        currentFunction = enclosingFunction;
+        activeLoops = enclosingLoops;
         currentFunctionType = tempFnType;
         contextEnabledOps = prev;
     }
 
     private void beginScope() {
         scopes.push(new HashMap<>());
+        scopeFunctions.push(new HashMap<>());
+        scopeDeclarations.push(new HashMap<>());
     }
 
     private void endScope() {
         scopes.pop();
+        scopeFunctions.pop();
+        scopeDeclarations.pop();
+    }
+
+    private static boolean declaresNames(List<Stmt> statements) {
+        for(Stmt statement : statements) {
+            if(statement instanceof Stmt.Var || statement instanceof Stmt.Function || statement instanceof Stmt.Class) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int scopeIndexOf(String name) {
+        for(int i = scopes.size() - 1; i >= 0; i--) {
+            if(scopes.get(i).containsKey(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private VariableKey variable(String name, int scopeIndex) {
+        return new VariableKey(scopeIndex < 0 ? null : scopes.get(scopeIndex), name, scopeIndex);
+    }
+
+    /**
+     * What a name refers to when it names a {@code fun}: the declaration for a local function, the
+     * name for a global one (globals are settled in finishAnalysis, once every declaration has been
+     * seen), or null for anything else.
+     */
+    private Object functionReference(String name, int scopeIndex) {
+        if(scopeIndex < 0) {
+            return name;
+        }
+        return scopeFunctions.get(scopeIndex).get(name);
+    }
+
+    private void bindFunction(Stmt.Function function) {
+        String name = function.getName().getLexeme();
+        if(scopes.isEmpty()) {
+            if(globalFunctions.put(name, function) != null) {
+                reboundGlobals.add(name);
+            }
+        } else {
+            scopeFunctions.peek().put(name, function);
+        }
+    }
+
+    private void markImpure() {
+        if(currentFunction != null) {
+            currentFunction.impure = true;
+        }
+    }
+
+    private void recordRead(Token name) {
+        int scopeIndex = scopeIndexOf(name.getLexeme());
+        if(!activeLoops.isEmpty() && scopeIndex >= 0) {
+            VariableKey variable = variable(name.getLexeme(), scopeIndex);
+            for(LoopInfo loop : activeLoops) {
+                if(!loop.resolvingHeader) {
+                    loop.readInBody.add(variable);
+                }
+            }
+        }
+        if(currentFunction == null || scopeIndex >= currentFunction.base) {
+            return;
+        }
+        if(scopeIndex >= 0) {
+            capturedVariables.add(variable(name.getLexeme(), scopeIndex));
+        }
+        //outer state may change between calls, outer functions may not
+        Object function = functionReference(name.getLexeme(), scopeIndex);
+        if(function == null) {
+            currentFunction.impure = true;
+        } else {
+            currentFunction.callees.add(function);
+        }
+    }
+
+    private void recordAssignment(Token name) {
+        int scopeIndex = scopeIndexOf(name.getLexeme());
+        VariableKey variable = variable(name.getLexeme(), scopeIndex);
+        for(LoopInfo loop : activeLoops) {
+            loop.assigned.add(variable);
+            if(!loop.resolvingIncrement) {
+                loop.assignedInBody.add(variable);
+            }
+        }
+        if(scopeIndex < 0) {
+            reboundGlobals.add(name.getLexeme());
+        } else {
+            Stmt.Function function = scopeFunctions.get(scopeIndex).get(name.getLexeme());
+            if(function != null) {
+                reboundFunctions.add(function);
+            }
+        }
+        if(currentFunction != null && scopeIndex < currentFunction.base) {
+            if(scopeIndex >= 0) {
+                capturedVariables.add(variable);
+            }
+            currentFunction.impure = true;
+        }
+    }
+
+    private void recordCall(Expr.Call call) {
+        Object callee = null;
+        if(call.getCallee() instanceof Expr.Variable) {
+            String name = ((Expr.Variable) call.getCallee()).getName().getLexeme();
+            callee = functionReference(name, scopeIndexOf(name));
+        }
+        //calling a parameter, a property or a class could run anything
+        if(callee == null) {
+            markImpure();
+        }
+        if(activeLoops.isEmpty()) {
+            return;
+        }
+        for(LoopInfo loop : activeLoops) {
+            if(callee == null) {
+                loop.unknownCalls = true;
+            } else {
+                loop.callees.add(callee);
+            }
+        }
+        //a call made only for what it does is made every time: for a pure one that is taking
+        //time, which profiles and budgets see
+        if(callee == null || call == discarded) {
+            return;
+        }
+        Candidate candidate = new Candidate(call);
+        if(!invariantShape(call, candidate)) {
+            return;
+        }
+        for(LoopInfo loop : activeLoops) {
+            loop.candidates.add(candidate);
+        }
+    }
+
+    /**
+     * Whether the expression is built only from literals, variables, operators and calls of
+     * functions by name, i.e. is loop invariant if none of its variables change and those
+     * functions are pure. Collects the variables and functions it depends on.
+     */
+    private boolean invariantShape(Expr expr, Candidate candidate) {
+        if(expr instanceof Expr.Literal) {
+            return true;
+        } else if(expr instanceof Expr.Variable) {
+            String name = ((Expr.Variable) expr).getName().getLexeme();
+            candidate.reads.add(variable(name, scopeIndexOf(name)));
+            return true;
+        } else if(expr instanceof Expr.Grouping) {
+            return invariantShape(((Expr.Grouping) expr).getExpression(), candidate);
+        } else if(expr instanceof Expr.Unary) {
+            return invariantShape(((Expr.Unary) expr).getOperand(), candidate);
+        } else if(expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return invariantShape(binary.getLeft(), candidate) && invariantShape(binary.getRight(), candidate);
+        } else if(expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            return invariantShape(logical.getLeft(), candidate) && invariantShape(logical.getRight(), candidate);
+        } else if(expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) expr;
+            if(!(call.getCallee() instanceof Expr.Variable)) {
+                return false;
+            }
+            String name = ((Expr.Variable) call.getCallee()).getName().getLexeme();
+            Object callee = functionReference(name, scopeIndexOf(name));
+            if(callee == null) {
+                return false;
+            }
+            candidate.callees.add(callee);
+            if(!invariantShape(call.getCallee(), candidate)) {
+                return false;
+            }
+            for(Expr argument : call.getArguments()) {
+                if(!invariantShape(argument, candidate)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Matches {@code for (var i = start; i < limit; i = i + step)} with a number literal step and
+     * any comparison. Whether the limit is invariant and i only changes in the increment is only
+     * known once the whole program has been resolved.
+     */
+    private CountedShape countedShape(Stmt.For loop) {
+        if(!(loop.getInitializer() instanceof Stmt.Var)
+                || !(loop.getCondition() instanceof Expr.Binary)
+                || !(loop.getIncrement() instanceof Expr.Assignment)) {
+            return null;
+        }
+        Token name = ((Stmt.Var) loop.getInitializer()).getName();
+        Expr.Binary condition = (Expr.Binary) loop.getCondition();
+        TokenType comparison = condition.getOperator().getType();
+        if(comparison != TokenType.LESS && comparison != TokenType.LESS_EQUAL
+                && comparison != TokenType.GREATER && comparison != TokenType.GREATER_EQUAL) {
+            return null;
+        }
+        if(!isVariable(condition.getLeft(), name)) {
+            return null;
+        }
+        Expr.Assignment increment = (Expr.Assignment) loop.getIncrement();
+        if(!increment.getIdentifier().getLexeme().equals(name.getLexeme())
+                || !(increment.getExpression() instanceof Expr.Binary)) {
+            return null;
+        }
+        Expr.Binary next = (Expr.Binary) increment.getExpression();
+        TokenType direction = next.getOperator().getType();
+        if(!isVariable(next.getLeft(), name)
+                || (direction != TokenType.PLUS && direction != TokenType.MINUS)
+                || !(next.getRight() instanceof Expr.Literal)
+                || !(((Expr.Literal) next.getRight()).getValue() instanceof Double)) {
+            return null;
+        }
+        double step = (double) ((Expr.Literal) next.getRight()).getValue();
+        Candidate limit = new Candidate(condition.getRight());
+        if(!invariantShape(condition.getRight(), limit)) {
+            return null;
+        }
+        VariableKey variable = variable(name.getLexeme(), scopes.size() - 1);
+        return new CountedShape(variable, name, comparison, limit, direction == TokenType.MINUS ? -step : step);
+    }
+
+    private static boolean isVariable(Expr expr, Token name) {
+        return expr instanceof Expr.Variable
+                && ((Expr.Variable) expr).getName().getLexeme().equals(name.getLexeme());
+    }
+
+    private void beginLoop(Stmt loop, int scopeDepth) {
+        activeLoops.push(new LoopInfo(loop, scopeDepth));
+    }
+
+    private void endLoop() {
+        loops.add(activeLoops.pop());
+    }
+
+    private Stmt.Function resolveFunctionReference(Object reference) {
+        if(reference instanceof Stmt.Function) {
+            return reboundFunctions.contains(reference) ? null : (Stmt.Function) reference;
+        }
+        String name = (String) reference;
+        return reboundGlobals.contains(name) ? null : globalFunctions.get(name);
+    }
+
+    private boolean isPure(Object reference, Set<Stmt.Function> pure) {
+        Stmt.Function function = resolveFunctionReference(reference);
+        return function != null && pure.contains(function);
+    }
+
+    /**
+     * Runs after every resolve call, over everything resolved so far, because a later REPL line
+     * may rebind a name that earlier conclusions relied on.
+     */
+    private void finishAnalysis() {
+        //start from every function without local effects and drop the ones calling impure ones
+        //until nothing changes, so (mutually) recursive functions can stay pure
+        Set<Stmt.Function> pure = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(FunctionInfo function : functions) {
+            if(function.declaration != null && !function.impure) {
+                pure.add(function.declaration);
+            }
+        }
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(FunctionInfo function : functions) {
+                if(function.declaration == null || !pure.contains(function.declaration)) {
+                    continue;
+                }
+                for(Object callee : function.callees) {
+                    if(!isPure(callee, pure)) {
+                        pure.remove(function.declaration);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        interpreter.resolvePureFunctions(pure);
+
+        //loops are listed inner first, so a call invariant in an outer loop as well ends up there
+        Map<Expr.Call, Stmt> invariantCalls = new IdentityHashMap<>();
+        Map<Stmt.For, CountedLoop> countedLoops = new IdentityHashMap<>();
+        for(LoopInfo loop : loops) {
+            boolean onlyPureCalls = !loop.unknownCalls;
+            for(Object callee : loop.callees) {
+                onlyPureCalls &= isPure(callee, pure);
+            }
+            for(Candidate candidate : loop.candidates) {
+                if(isInvariant(candidate, loop, onlyPureCalls, pure)) {
+                    invariantCalls.put((Expr.Call) candidate.expr, loop.statement);
+                }
+            }
+            CountedShape counted = loop.counted;
+            if(counted != null
+                    && !loop.assignedInBody.contains(counted.variable)
+                    && !capturedVariables.contains(counted.variable)
+                    && isInvariant(counted.limit, loop, onlyPureCalls, pure)) {
+                countedLoops.put((Stmt.For) loop.statement,
+                        new CountedLoop(counted.name, counted.comparison, counted.limit.expr, counted.step,
+                                loop.readInBody.contains(counted.variable)));
+            }
+        }
+        interpreter.resolveLoopInvariantCalls(invariantCalls);
+        interpreter.resolveCountedLoops(countedLoops);
+    }
+
+    private boolean isInvariant(Candidate candidate, LoopInfo loop, boolean onlyPureCalls, Set<Stmt.Function> pure) {
+        for(Object callee : candidate.callees) {
+            if(!isPure(callee, pure)) {
+                return false;
+            }
+        }
+        for(VariableKey variable : candidate.reads) {
+            if(variable.scopeIndex >= loop.scopeDepth || loop.assigned.contains(variable)) {
+                return false;
+            }
+            //an impure call in the loop could change globals and captured variables behind our back
+            if(!onlyPureCalls && (variable.scopeIndex < 0 || capturedVariables.contains(variable))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void declare(Token name) {
@@ -299,6 +912,7 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
             );
         }
         scope.put(name.getLexeme(), false);
+        scopeDeclarations.peek().put(name.getLexeme(), name);
     }
 
     private void define(Token token) {
@@ -307,6 +921,108 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
         scopes.peek().put(token.getLexeme(), true);
     }
 
+    private static class FunctionInfo {
+        final Stmt.Function declaration;
+        final FunctionInfo enclosing;
+        //index of the function's parameter scope; anything below it is outer state
+        final int base;
+        //functions it calls or reads: declarations of local functions, names of global ones
+        final List<Object> callees = new ArrayList<>();
+        final Map<String, Upvalue> upvalues = new LinkedHashMap<>();
+        boolean impure;
+        boolean generator;
+
+        FunctionInfo(Stmt.Function declaration, FunctionInfo enclosing, int base) {
+            this.declaration = declaration;
+            this.enclosing = enclosing;
+            this.base = base;
+        }
+    }
+
+    private static class LoopInfo {
+        final Stmt statement;
+        //scopes from this index on belong to the loop
+        final int scopeDepth;
+        final Set<VariableKey> assigned = new HashSet<>();
+        final List<Object> callees = new ArrayList<>();
+        final List<Candidate> candidates = new ArrayList<>();
+        //assigned anywhere but in the increment of a for loop
+        final Set<VariableKey> assignedInBody = new HashSet<>();
+        //read anywhere but in the condition and increment of a for loop
+        final Set<VariableKey> readInBody = new HashSet<>();
+        boolean resolvingIncrement;
+        boolean resolvingHeader;
+        boolean unknownCalls;
+        CountedShape counted;
+
+        LoopInfo(Stmt statement, int scopeDepth) {
+            this.statement = statement;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    /**
+     * An expression built from literals, variables and calls of functions by name: a call whose
+     * arguments are such expressions, or the limit of a counted loop.
+     */
+    private static class Candidate {
+        final Expr expr;
+        final List<VariableKey> reads = new ArrayList<>();
+        final List<Object> callees = new ArrayList<>();
+
+        Candidate(Expr expr) {
+            this.expr = expr;
+        }
+    }
+
+    /**
+     * {@code for (var i = ...; i < limit; i = i + step)}, as far as its syntax goes.
+     */
+    private static class CountedShape {
+        final VariableKey variable;
+        final Token name;
+        final TokenType comparison;
+        final Candidate limit;
+        final double step;
+
+        CountedShape(VariableKey variable, Token name, TokenType comparison, Candidate limit, double step) {
+            this.variable = variable;
+            this.name = name;
+            this.comparison = comparison;
+            this.limit = limit;
+            this.step = step;
+        }
+    }
+
+    /**
+     * A declared variable: its scope (null for globals) and name.
+     */
+    private static class VariableKey {
+        final Map<String, Boolean> scope;
+        final String name;
+        final int scopeIndex;
+
+        VariableKey(Map<String, Boolean> scope, String name, int scopeIndex) {
+            this.scope = scope;
+            this.name = name;
+            this.scopeIndex = scopeIndex;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof VariableKey)) {
+                return false;
+            }
+            VariableKey key = (VariableKey) other;
+            return key.scope == scope && key.name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(scope) * 31 + name.hashCode();
+        }
+    }
+
     //Upgraded from FunctionType in the book because I implemented support
     //for break and continue statements. There can be loops inside a function, and we
     //can return from inside a loop. This means we can have multiple contextual operations/keywords
@@ -325,6 +1041,7 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
         private static final int[] LOOP_IN_CLASS_FUNCTION = new int[] { RETURN, THIS, BREAK, CONTINUE };
 
         private static final int[] TOP_LEVEL_LOOP = new int[] { BREAK, CONTINUE };
+        private static final int[] MODULE_CONTEXT_OPS = new int[0];
 
         public static int[] getLoopContextOps(int[] currentOps)
         {
@@ -343,6 +1060,8 @@ public class Resolver implements ExprVisitor<Void>, StmtVisitor<Void> {
                 case METHOD:
                 case INITIALIZER:
                     return CLASS_FUNCTION_CONTEXT_OPS;
+                case MODULE:
+                    return MODULE_CONTEXT_OPS;
                 default:
                     return FUNCTION_CONTEXT_OPS;
             }
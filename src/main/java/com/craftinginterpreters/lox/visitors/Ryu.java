@@ -0,0 +1,281 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.math.BigInteger;
+
+/**
+ * Shortest decimal representation of a double, after Ulf Adams' Ryu ("Ryū: fast float-to-string
+ * conversion", PLDI 2018). The 128-bit tables of powers of five are computed with BigInteger when
+ * the class loads instead of being pasted in.
+ *
+ * The digits come out in the layout of {@link Double#toString(double)}: plain between 10^-3 and
+ * 10^7, computerized scientific notation outside it, always with a digit after the point.
+ */
+final class Ryu {
+    private static final int MANTISSA_BITS = 52;
+    private static final long MANTISSA_MASK = (1L << MANTISSA_BITS) - 1;
+    private static final int EXPONENT_MASK = (1 << 11) - 1;
+    private static final int EXPONENT_BIAS = 1023;
+
+    private static final int POW5_BITCOUNT = 125;
+    private static final int POW5_INV_BITCOUNT = 125;
+    private static final int POW5_TABLE_SIZE = 326;
+    private static final int POW5_INV_TABLE_SIZE = 342;
+
+    //{low 64 bits, high 64 bits} of 5^i scaled to POW5_BITCOUNT bits
+    private static final long[][] POW5_SPLIT = new long[POW5_TABLE_SIZE][2];
+    //{low, high} of 2^(bitlength(5^i) - 1 + POW5_INV_BITCOUNT) / 5^i + 1
+    private static final long[][] POW5_INV_SPLIT = new long[POW5_INV_TABLE_SIZE][2];
+
+    static {
+        BigInteger mask64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        BigInteger five = BigInteger.valueOf(5);
+        for(int i = 0; i < Math.max(POW5_TABLE_SIZE, POW5_INV_TABLE_SIZE); i++) {
+            BigInteger pow = five.pow(i);
+            int length = pow.bitLength();
+            if(i < POW5_TABLE_SIZE) {
+                BigInteger scaled = length > POW5_BITCOUNT
+                        ? pow.shiftRight(length - POW5_BITCOUNT)
+                        : pow.shiftLeft(POW5_BITCOUNT - length);
+                POW5_SPLIT[i][0] = scaled.and(mask64).longValue();
+                POW5_SPLIT[i][1] = scaled.shiftRight(64).longValue();
+            }
+            if(i < POW5_INV_TABLE_SIZE) {
+                BigInteger inverse = BigInteger.ONE.shiftLeft(length - 1 + POW5_INV_BITCOUNT).divide(pow).add(BigInteger.ONE);
+                POW5_INV_SPLIT[i][0] = inverse.and(mask64).longValue();
+                POW5_INV_SPLIT[i][1] = inverse.shiftRight(64).longValue();
+            }
+        }
+    }
+
+    private Ryu() {
+    }
+
+    static String toString(double value) {
+        StringBuilder builder = new StringBuilder(24);
+        append(builder, value);
+        return builder.toString();
+    }
+
+    static void append(StringBuilder out, double value) {
+        if(Double.isNaN(value)) {
+            out.append("NaN");
+            return;
+        }
+        long bits = Double.doubleToRawLongBits(value);
+        boolean sign = bits < 0;
+        long ieeeMantissa = bits & MANTISSA_MASK;
+        int ieeeExponent = (int) ((bits >>> MANTISSA_BITS) & EXPONENT_MASK);
+        if(sign) {
+            out.append('-');
+        }
+        if(ieeeExponent == EXPONENT_MASK) {
+            out.append("Infinity");
+            return;
+        }
+        if(ieeeExponent == 0 && ieeeMantissa == 0) {
+            out.append("0.0");
+            return;
+        }
+
+        int e2;
+        long m2;
+        if(ieeeExponent == 0) {
+            e2 = 1 - EXPONENT_BIAS - MANTISSA_BITS - 2;
+            m2 = ieeeMantissa;
+        } else {
+            e2 = ieeeExponent - EXPONENT_BIAS - MANTISSA_BITS - 2;
+            m2 = (1L << MANTISSA_BITS) | ieeeMantissa;
+        }
+        boolean even = (m2 & 1) == 0;
+        boolean acceptBounds = even;
+
+        //the interval of decimals that round to this double is (mv - mmShift - 1, mv + 2) * 2^e2 / 4
+        long mv = 4 * m2;
+        int mmShift = ieeeMantissa != 0 || ieeeExponent <= 1 ? 1 : 0;
+
+        long vr, vp, vm;
+        int e10;
+        boolean vmIsTrailingZeros = false;
+        boolean vrIsTrailingZeros = false;
+        if(e2 >= 0) {
+            int q = log10Pow2(e2) - (e2 > 3 ? 1 : 0);
+            e10 = q;
+            int k = POW5_INV_BITCOUNT + pow5bits(q) - 1;
+            int i = -e2 + q + k;
+            long[] mul = POW5_INV_SPLIT[q];
+            vr = mulShift(4 * m2, mul, i);
+            vp = mulShift(4 * m2 + 2, mul, i);
+            vm = mulShift(4 * m2 - 1 - mmShift, mul, i);
+            if(q <= 21) {
+                if(mv % 5 == 0) {
+                    vrIsTrailingZeros = multipleOfPowerOf5(mv, q);
+                } else if(acceptBounds) {
+                    vmIsTrailingZeros = multipleOfPowerOf5(mv - 1 - mmShift, q);
+                } else {
+                    vp -= multipleOfPowerOf5(mv + 2, q) ? 1 : 0;
+                }
+            }
+        } else {
+            int q = log10Pow5(-e2) - (-e2 > 1 ? 1 : 0);
+            e10 = q + e2;
+            int i = -e2 - q;
+            int k = pow5bits(i) - POW5_BITCOUNT;
+            int j = q - k;
+            long[] mul = POW5_SPLIT[i];
+            vr = mulShift(4 * m2, mul, j);
+            vp = mulShift(4 * m2 + 2, mul, j);
+            vm = mulShift(4 * m2 - 1 - mmShift, mul, j);
+            if(q <= 1) {
+                vrIsTrailingZeros = true;
+                if(acceptBounds) {
+                    vmIsTrailingZeros = mmShift == 1;
+                } else {
+                    --vp;
+                }
+            } else if(q < 63) {
+                vrIsTrailingZeros = (mv & ((1L << q) - 1)) == 0;
+            }
+        }
+
+        //drop digits while the shortened upper and lower bounds still differ
+        int removed = 0;
+        int lastRemovedDigit = 0;
+        long output;
+        if(vmIsTrailingZeros || vrIsTrailingZeros) {
+            while(vp / 10 > vm / 10) {
+                vmIsTrailingZeros &= vm % 10 == 0;
+                vrIsTrailingZeros &= lastRemovedDigit == 0;
+                lastRemovedDigit = (int) (vr % 10);
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            if(vmIsTrailingZeros) {
+                while(vm % 10 == 0) {
+                    vrIsTrailingZeros &= lastRemovedDigit == 0;
+                    lastRemovedDigit = (int) (vr % 10);
+                    vr /= 10;
+                    vp /= 10;
+                    vm /= 10;
+                    removed++;
+                }
+            }
+            if(vrIsTrailingZeros && lastRemovedDigit == 5 && vr % 2 == 0) {
+                //exactly halfway: round to even
+                lastRemovedDigit = 4;
+            }
+            output = vr + ((vr == vm && (!acceptBounds || !vmIsTrailingZeros)) || lastRemovedDigit >= 5 ? 1 : 0);
+        } else {
+            boolean roundUp = false;
+            if(vp / 100 > vm / 100) {
+                roundUp = vr % 100 >= 50;
+                vr /= 100;
+                vp /= 100;
+                vm /= 100;
+                removed += 2;
+            }
+            while(vp / 10 > vm / 10) {
+                roundUp = vr % 10 >= 5;
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            output = vr + (vr == vm || roundUp ? 1 : 0);
+        }
+        int exponent = e10 + removed;
+
+        layout(out, output, exponent);
+    }
+
+    /**
+     * Writes {@code digits * 10^exponent} the way Double.toString lays it out.
+     */
+    private static void layout(StringBuilder out, long digits, int exponent) {
+        int length = decimalLength(digits);
+        int scientific = exponent + length - 1;
+        int start = out.length();
+        out.append(digits);
+        if(scientific >= -3 && scientific < 7) {
+            if(exponent >= 0) {
+                for(int i = 0; i < exponent; i++) {
+                    out.append('0');
+                }
+                out.append(".0");
+            } else if(scientific >= 0) {
+                out.insert(start + scientific + 1, '.');
+            } else {
+                out.insert(start, "0.");
+                for(int i = -1; i > scientific; i--) {
+                    out.insert(start + 2, '0');
+                }
+            }
+            return;
+        }
+        if(length == 1) {
+            out.append(".0");
+        } else {
+            out.insert(start + 1, '.');
+        }
+        out.append('E').append(scientific);
+    }
+
+    private static int decimalLength(long value) {
+        int length = 1;
+        for(long limit = 10; length < 19 && value >= limit; limit *= 10) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int pow5bits(int e) {
+        return ((e * 1217359) >>> 19) + 1;
+    }
+
+    private static int log10Pow2(int e) {
+        return (e * 78913) >>> 18;
+    }
+
+    private static int log10Pow5(int e) {
+        return (e * 732923) >>> 20;
+    }
+
+    private static boolean multipleOfPowerOf5(long value, int p) {
+        int count = 0;
+        while(value > 0 && value % 5 == 0) {
+            value /= 5;
+            count++;
+        }
+        return count >= p;
+    }
+
+    /**
+     * (m * mul) >> j for a 55-bit m and a 128-bit mul, where the result fits in 64 bits.
+     */
+    private static long mulShift(long m, long[] mul, int j) {
+        long high0 = multiplyHighUnsigned(m, mul[0]);
+        long low1 = m * mul[1];
+        long high1 = multiplyHighUnsigned(m, mul[1]);
+        long sumLow = low1 + high0;
+        long sumHigh = high1 + (Long.compareUnsigned(sumLow, low1) < 0 ? 1 : 0);
+        int shift = j - 64;
+        if(shift == 0) {
+            return sumLow;
+        }
+        return (sumHigh << (64 - shift)) | (sumLow >>> shift);
+    }
+
+    private static long multiplyHighUnsigned(long a, long b) {
+        long aLow = a & 0xFFFFFFFFL;
+        long aHigh = a >>> 32;
+        long bLow = b & 0xFFFFFFFFL;
+        long bHigh = b >>> 32;
+        long lowLow = aLow * bLow;
+        long highLow = aHigh * bLow;
+        long lowHigh = aLow * bHigh;
+        long highHigh = aHigh * bHigh;
+        long cross = (lowLow >>> 32) + (highLow & 0xFFFFFFFFL) + lowHigh;
+        return highHigh + (highLow >>> 32) + (cross >>> 32);
+    }
+}
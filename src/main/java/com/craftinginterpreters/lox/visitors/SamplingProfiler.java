@@ -0,0 +1,101 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples the Lox call stack at a fixed rate. A background thread only raises a flag; the
+ * interpreter notices it at its next loop back-edge or function call and records the stack itself,
+ * so the sampler never reads interpreter state from another thread. Each frame is reported as
+ * {@code function:line}, where the line is the one the frame was executing when sampled.
+ *
+ * {@link #writeCollapsed(Writer)} writes one {@code frame;frame;frame count} line per distinct
+ * stack, the input format of flamegraph.pl and speedscope.
+ */
+public class SamplingProfiler {
+    private static final String ROOT = "<script>";
+
+    private final long intervalNanos;
+    private final Map<String, long[]> samples = new HashMap<>();
+    private final StringBuilder key = new StringBuilder();
+
+    private volatile boolean sampleDue;
+    private volatile boolean running;
+    private Thread ticker;
+
+    public SamplingProfiler(long interval, TimeUnit unit) {
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    public void start() {
+        running = true;
+        ticker = new Thread(() -> {
+            while(running) {
+                LockSupport.parkNanos(intervalNanos);
+                sampleDue = true;
+            }
+        }, "lox-profiler");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    public void stop() {
+        running = false;
+        if(ticker != null) {
+            LockSupport.unpark(ticker);
+            ticker = null;
+        }
+    }
+
+    boolean isSampleDue() {
+        return sampleDue;
+    }
+
+    /**
+     * Records the stack, {@code line} being where the innermost frame currently is.
+     */
+    void sample(CallStack callStack, int line) {
+        sampleDue = false;
+        key.setLength(0);
+        int depth = callStack.depth();
+        key.append(ROOT).append(':').append(depth == 0 ? line : callStack.get(0).getCallLine());
+        for(int i = 0; i < depth; i++) {
+            CallFrame frame = callStack.get(i);
+            int frameLine = i + 1 < depth ? callStack.get(i + 1).getCallLine() : line;
+            key.append(';').append(frame.getFunction().getName()).append(':').append(frameLine);
+        }
+        String stack = key.toString();
+        long[] count = samples.get(stack);
+        if(count == null) {
+            samples.put(stack, new long[] { 1 });
+        } else {
+            count[0]++;
+        }
+    }
+
+    public long getSampleCount() {
+        long total = 0;
+        for(long[] count : samples.values()) {
+            total += count[0];
+        }
+        return total;
+    }
+
+    public void writeCollapsed(Writer out) throws IOException {
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(samples.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+        for(Map.Entry<String, long[]> entry : entries) {
+            out.write(entry.getKey());
+            out.write(' ');
+            out.write(Long.toString(entry.getValue()[0]));
+            out.write('\n');
+        }
+        out.flush();
+    }
+}
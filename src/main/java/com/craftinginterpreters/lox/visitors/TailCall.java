@@ -0,0 +1,23 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.util.List;
+
+/**
+ * The pending call of a {@code return f(x);} statement that the {@link Resolver} found in tail
+ * position. Rather than calling {@code f} from inside the returning function, the interpreter parks
+ * the call here and unwinds to {@link LoxFunction#call}, which runs it in a loop, so a chain of tail
+ * calls uses constant JVM stack. There is one per interpreter: it is read back before anything else
+ * can run, so it never needs to be allocated per call, and it never escapes as a Lox value.
+ */
+final class TailCall {
+    LoxCallable callee;
+    //'this' for a method called straight from 'return obj.method(x);', otherwise null
+    LoxInstance receiver;
+    List<Object> arguments;
+
+    void set(LoxCallable callee, LoxInstance receiver, List<Object> arguments) {
+        this.callee = callee;
+        this.receiver = receiver;
+        this.arguments = arguments;
+    }
+}
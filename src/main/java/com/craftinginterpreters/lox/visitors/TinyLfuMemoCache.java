@@ -0,0 +1,140 @@
+package com.craftinginterpreters.lox.visitors;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * W-TinyLFU (Einziger, Friedman and Manes, "TinyLFU: A Highly Efficient Cache Admission Policy").
+ * New results enter a small LRU window (1% of the capacity). A result pushed out of the window is
+ * only admitted to the main area if the frequency sketch says it is used more often than the main
+ * area's own eviction candidate. The main area is a segmented LRU: results hit again while on
+ * probation move to the protected segment (80% of the main area), which demotes its oldest back
+ * to probation when full.
+ */
+class TinyLfuMemoCache extends MemoCache {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final Map<Object, Node> nodes = new HashMap<>();
+    //sentinels of circular lists, most recently used first
+    private final Node[] regions = {new Node(null, null), new Node(null, null), new Node(null, null)};
+    private final int[] sizes = new int[3];
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final int protectedCapacity;
+    private final FrequencySketch sketch;
+
+    TinyLfuMemoCache(int capacity) {
+        super(capacity);
+        windowCapacity = Math.max(1, capacity / 100);
+        mainCapacity = capacity - windowCapacity;
+        protectedCapacity = mainCapacity * 4 / 5;
+        sketch = new FrequencySketch(capacity);
+        for(Node sentinel : regions) {
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+        }
+    }
+
+    @Override
+    Object get(Object key) {
+        sketch.increment(key);
+        Node node = nodes.get(key);
+        if(node == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        unlink(node);
+        if(node.region == PROBATION) {
+            link(node, PROTECTED);
+            if(sizes[PROTECTED] > protectedCapacity) {
+                Node demoted = regions[PROTECTED].prev;
+                unlink(demoted);
+                link(demoted, PROBATION);
+            }
+        } else {
+            link(node, node.region);
+        }
+        return node.value;
+    }
+
+    @Override
+    void put(Object key, Object value) {
+        Node node = nodes.get(key);
+        if(node != null) {
+            node.value = value;
+            return;
+        }
+        node = new Node(key, value);
+        nodes.put(key, node);
+        link(node, WINDOW);
+        if(sizes[WINDOW] <= windowCapacity) {
+            return;
+        }
+
+        Node candidate = regions[WINDOW].prev;
+        unlink(candidate);
+        if(sizes[PROBATION] + sizes[PROTECTED] < mainCapacity) {
+            link(candidate, PROBATION);
+            return;
+        }
+        if(mainCapacity == 0) {
+            evict(candidate);
+            return;
+        }
+        Node victim = sizes[PROBATION] > 0 ? regions[PROBATION].prev : regions[PROTECTED].prev;
+        if(sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+            unlink(victim);
+            evict(victim);
+            link(candidate, PROBATION);
+        } else {
+            evict(candidate);
+        }
+    }
+
+    @Override
+    int size() {
+        return nodes.size();
+    }
+
+    @Override
+    String getPolicy() {
+        return "w-tinylfu";
+    }
+
+    private void evict(Node node) {
+        nodes.remove(node.key);
+        evictions++;
+    }
+
+    private void link(Node node, int region) {
+        Node sentinel = regions[region];
+        node.region = region;
+        node.prev = sentinel;
+        node.next = sentinel.next;
+        sentinel.next.prev = node;
+        sentinel.next = node;
+        sizes[region]++;
+    }
+
+    private void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        sizes[node.region]--;
+    }
+
+    private static class Node {
+        final Object key;
+        Object value;
+        int region;
+        Node prev;
+        Node next;
+
+        Node(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
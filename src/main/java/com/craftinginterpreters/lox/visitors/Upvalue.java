@@ -0,0 +1,15 @@
+package com.craftinginterpreters.lox.visitors;
+
+/**
+ * A variable a function captures when it is created: its name and how many environments out
+ * from the one creating the function its cell is found.
+ */
+final class Upvalue {
+    final String name;
+    final int distance;
+
+    Upvalue(String name, int distance) {
+        this.name = name;
+        this.distance = distance;
+    }
+}
@@ -0,0 +1,90 @@
+package com.craftinginterpreters.lox.bench;
+
+import com.craftinginterpreters.lox.Parser;
+import com.craftinginterpreters.lox.Scanner;
+import com.craftinginterpreters.lox.Stmt;
+import com.craftinginterpreters.lox.visitors.Interpreter;
+import com.craftinginterpreters.lox.visitors.MemoryOutputSink;
+import com.craftinginterpreters.lox.visitors.Resolver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Measures the throughput of the file natives over a generated file of several GB: streaming it
+ * with readLines, and counting and searching it through mapFile. The file is written to
+ * {@code lox.bench.fileDir} (the temp directory by default), is {@code lox.bench.fileGb} GB large
+ * (3 by default, more than a single mapping can hold) and is deleted afterwards.
+ *
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes com.craftinginterpreters.lox.bench.FileThroughputBenchmark
+ */
+public class FileThroughputBenchmark {
+    private static final double GIGABYTES = Double.parseDouble(System.getProperty("lox.bench.fileGb", "3"));
+    private static final String LINE = "the quick brown fox jumps over the lazy dog, 0123456789 abcdefghijklmnopqrstuv\n";
+    private static final String MARKER = "needle in the haystack";
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Paths.get(System.getProperty("lox.bench.fileDir", System.getProperty("java.io.tmpdir")));
+        Path file = Files.createTempFile(dir, "lox-throughput", ".txt");
+        try {
+            long lines = generate(file, (long) (GIGABYTES * (1L << 30)));
+            long size = Files.size(file);
+            String path = file.toString().replace("\\", "/");
+            System.out.printf("%s: %.2f GB, %d lines%n", file, size / (double) (1L << 30), lines);
+
+            measure("readLines", size, "var lines = readLines(\"" + path + "\"); var n = 0;" +
+                    "while (lines.hasNext()) { lines.next(); n = n + 1; } print n;");
+            //Lox strings have no escapes, so the newline is a literal one
+            measure("mapFile count", size, "print mapFile(\"" + path + "\").count(\"\n\");");
+            measure("mapFile indexOf", size, "print mapFile(\"" + path + "\").indexOf(\"" + MARKER + "\", 0);");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    //whole lines up to the size, then the marker on a line of its own
+    private static long generate(Path file, long size) throws IOException {
+        byte[] line = LINE.getBytes(StandardCharsets.UTF_8);
+        int perBlock = (1 << 20) / line.length;
+        ByteBuffer block = ByteBuffer.allocateDirect(perBlock * line.length);
+        for(int i = 0; i < perBlock; i++) {
+            block.put(line);
+        }
+        long lines = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for(long written = 0; written + block.capacity() <= size; written += block.capacity()) {
+                block.rewind();
+                while(block.hasRemaining()) {
+                    channel.write(block);
+                }
+                lines += perBlock;
+            }
+            ByteBuffer marker = StandardCharsets.UTF_8.encode(MARKER + "\n");
+            while(marker.hasRemaining()) {
+                channel.write(marker);
+            }
+        }
+        return lines + 1;
+    }
+
+    private static void measure(String name, long bytes, String source) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter();
+        MemoryOutputSink output = new MemoryOutputSink();
+        interpreter.setOutput(output);
+        new Resolver(interpreter).resolve(statements);
+        long start = System.nanoTime();
+        interpreter.interpret(statements);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-18s %8.2f s %10.1f MB/s   result %s%n",
+                name, seconds, bytes / 1e6 / seconds, output.getText().trim());
+    }
+}
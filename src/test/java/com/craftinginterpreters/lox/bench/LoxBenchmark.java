@@ -0,0 +1,127 @@
+package com.craftinginterpreters.lox.bench;
+
+import com.craftinginterpreters.lox.Parser;
+import com.craftinginterpreters.lox.Scanner;
+import com.craftinginterpreters.lox.Stmt;
+import com.craftinginterpreters.lox.visitors.Interpreter;
+import com.craftinginterpreters.lox.visitors.Resolver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs the scripts in the benchmarks folder (or the ones passed on the command line) a few times
+ * and prints the best and median wall time of each, plus the bytes allocated and the collections
+ * run per timed iteration. Script output is discarded while timing.
+ *
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes com.craftinginterpreters.lox.bench.LoxBenchmark [script...]
+ */
+public class LoxBenchmark {
+    private static final int WARMUP = Integer.getInteger("lox.bench.warmup", 5);
+    private static final int ITERATIONS = Integer.getInteger("lox.bench.iterations", 10);
+
+    public static void main(String[] args) throws IOException {
+        List<Path> scripts = new ArrayList<>();
+        if(args.length == 0) {
+            try (Stream<Path> files = Files.list(Paths.get("benchmarks"))) {
+                scripts.addAll(files.filter(p -> p.toString().endsWith(".lox")).sorted().collect(Collectors.toList()));
+            }
+        } else {
+            for(String arg : args) {
+                scripts.add(Paths.get(arg));
+            }
+        }
+
+        for(Path script : scripts) {
+            String source = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+            long[] times = new long[ITERATIONS];
+            for(int i = 0; i < WARMUP; i++) {
+                run(script, source);
+            }
+            long allocatedBefore = allocatedBytes();
+            long collectionsBefore = collections();
+            for(int i = 0; i < ITERATIONS; i++) {
+                times[i] = run(script, source);
+            }
+            long allocated = (allocatedBytes() - allocatedBefore) / ITERATIONS;
+            double collections = (double) (collections() - collectionsBefore) / ITERATIONS;
+            Arrays.sort(times);
+            System.out.printf("%-24s best %8.2f ms   median %8.2f ms   alloc %8.2f MB   gc %6.1f%n",
+                    script.getFileName(),
+                    times[0] / 1e6,
+                    times[times.length / 2] / 1e6,
+                    allocated / 1e6,
+                    collections);
+        }
+    }
+
+    /**
+     * Bytes allocated by this thread so far, or 0 when the JVM cannot tell.
+     */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    static long collections() {
+        long count = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(collector.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    static long run(Path script, String source) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) { }
+
+            @Override
+            public void write(byte[] b, int off, int len) { }
+        }));
+        try {
+            long start = System.nanoTime();
+            List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+            Interpreter interpreter = new Interpreter();
+            interpreter.setScriptPath(script);
+            interpreter.defineObject("javaCounter", new Counter());
+            new Resolver(interpreter).resolve(statements);
+            interpreter.interpret(statements);
+            return System.nanoTime() - start;
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * The Java object calls-java.lox calls into, the twin of the Lox class in calls-lox.lox.
+     */
+    public static class Counter {
+        private double total;
+
+        public void add(double n) {
+            total += n;
+        }
+
+        public double total() {
+            return total;
+        }
+    }
+}
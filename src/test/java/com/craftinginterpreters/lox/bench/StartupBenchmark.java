@@ -0,0 +1,82 @@
+package com.craftinginterpreters.lox.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how long jlox takes from launch to its first line of output, starting a new JVM for
+ * every run of a hello-world script. It compares the JVM without class data sharing, with the
+ * JDK's default archive, and with the AppCDS archive that {@code mvn -Pcds package} writes to
+ * target/lox.jsa, when there is one.
+ *
+ * {@code lox.bench.runs} sets the number of runs per configuration (20 by default) and
+ * {@code lox.bench.script} the script (benchmarks/startup/hello.lox). The interpreter comes from the
+ * jar in target, or from target/classes when no jar has been built.
+ *
+ * mvn -Pcds package
+ * java -cp target/test-classes com.craftinginterpreters.lox.bench.StartupBenchmark
+ */
+public class StartupBenchmark {
+    private static final int RUNS = Integer.getInteger("lox.bench.runs", 20);
+    private static final String SCRIPT = System.getProperty("lox.bench.script", "benchmarks/startup/hello.lox");
+    private static final Path ARCHIVE = Paths.get("target", "lox.jsa");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String classpath = classpath();
+        System.out.printf("%s, %d runs each, classpath %s%n", SCRIPT, RUNS, classpath);
+        measure("no sharing", classpath, "-Xshare:off");
+        measure("default CDS", classpath);
+        if(Files.exists(ARCHIVE)) {
+            measure("AppCDS", classpath, "-XX:SharedArchiveFile=" + ARCHIVE);
+        } else {
+            System.out.println("no " + ARCHIVE + ", build it with mvn -Pcds package");
+        }
+    }
+
+    private static void measure(String name, String classpath, String... jvmOptions)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.asList(jvmOptions));
+        command.addAll(Arrays.asList("-cp", classpath, "com.craftinginterpreters.lox.Lox", SCRIPT));
+
+        long[] firstLine = new long[RUNS];
+        long[] exit = new long[RUNS];
+        for(int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (BufferedReader out = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line = out.readLine();
+                firstLine[i] = System.nanoTime() - start;
+                if(line == null) {
+                    throw new IllegalStateException(name + ": the script printed nothing");
+                }
+                while(out.readLine() != null) {
+                    //drain the rest so the process is not blocked on a full pipe
+                }
+            }
+            process.waitFor();
+            exit[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(firstLine);
+        Arrays.sort(exit);
+        System.out.printf("%-12s first print: best %6.1f ms  median %6.1f ms   exit: median %6.1f ms%n",
+                name, firstLine[0] / 1e6, firstLine[RUNS / 2] / 1e6, exit[RUNS / 2] / 1e6);
+    }
+
+    private static String classpath() {
+        File[] jars = new File("target").listFiles((dir, file) -> file.startsWith("lox-") && file.endsWith(".jar"));
+        //CDS only archives classes loaded from jars, so the archive needs the jar
+        return jars != null && jars.length > 0 ? jars[0].getPath() : Paths.get("target", "classes").toString();
+    }
+}
@@ -0,0 +1,679 @@
+package com.craftinginterpreters.lox.visitors;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.craftinginterpreters.lox.Parser;
+import com.craftinginterpreters.lox.Scanner;
+import com.craftinginterpreters.lox.Stmt;
+import com.craftinginterpreters.lox.Symbols;
+import com.craftinginterpreters.lox.Token;
+import com.craftinginterpreters.lox.TokenType;
+import org.junit.Test;
+
+public class InterpreterTest
+{
+    @Test(timeout = 5000)
+    public void shouldStopInfiniteLoopWhenStepBudgetRunsOut() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setBudget(new ExecutionBudget(10_000, ExecutionBudget.UNLIMITED, ExecutionBudget.UNLIMITED, Integer.MAX_VALUE));
+        run(interpreter, "while (true) { }");
+        assertEquals(10_001, interpreter.getBudget().getSteps());
+    }
+
+    @Test(timeout = 5000)
+    public void shouldStopWhenTimeBudgetRunsOut() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setBudget(new ExecutionBudget(ExecutionBudget.UNLIMITED, ExecutionBudget.UNLIMITED, 50, Integer.MAX_VALUE));
+        run(interpreter, "var i = 0; while (true) { i = i + 1; }");
+        assertTrue(interpreter.getBudget().getSteps() > 0);
+    }
+
+    @Test(timeout = 5000)
+    public void shouldStopRunawayRecursionAtCallDepthLimit() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setBudget(new ExecutionBudget(ExecutionBudget.UNLIMITED, ExecutionBudget.UNLIMITED, ExecutionBudget.UNLIMITED, 100));
+        run(interpreter, "var finished = false; fun f(n) { f(n + 1); } f(0); finished = true;");
+        assertEquals(false, global(interpreter, "finished"));
+    }
+
+    @Test(timeout = 5000)
+    public void shouldStopWhenAllocationBudgetRunsOut() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setBudget(new ExecutionBudget(ExecutionBudget.UNLIMITED, 50, ExecutionBudget.UNLIMITED, Integer.MAX_VALUE));
+        run(interpreter, "class A {} while (true) { A(); }");
+        assertEquals(51, interpreter.getBudget().getAllocations());
+    }
+
+    @Test(timeout = 5000)
+    public void shouldChargeArraysMapsAndGeneratorsToTheAllocationBudget() {
+        String[] sources = {
+                "while (true) { Array(10); }",
+                "while (true) { Map(); }",
+                "fun gen() { yield 1; } while (true) { gen(); }"
+        };
+        for(String source : sources) {
+            Interpreter interpreter = new Interpreter();
+            interpreter.setBudget(new ExecutionBudget(ExecutionBudget.UNLIMITED, 50, ExecutionBudget.UNLIMITED, Integer.MAX_VALUE));
+            run(interpreter, source);
+            assertEquals(source, 51, interpreter.getBudget().getAllocations());
+        }
+    }
+
+    @Test
+    public void shouldRunTailCallsInConstantStack() {
+        Interpreter interpreter = new Interpreter();
+        run(interpreter, "fun even(n) { if (n == 0) return true; return odd(n - 1); }" +
+                "fun odd(n) { if (n == 0) return false; return even(n - 1); }" +
+                "var result = even(200001);");
+        assertEquals(false, global(interpreter, "result"));
+        assertEquals(0, interpreter.getCallStack().depth());
+    }
+
+    @Test(timeout = 10000)
+    public void shouldSampleLoxLevelStacks() throws Exception {
+        Interpreter interpreter = new Interpreter();
+        SamplingProfiler profiler = new SamplingProfiler(100, TimeUnit.MICROSECONDS);
+        interpreter.setProfiler(profiler);
+        profiler.start();
+        interpreter.setBudget(new ExecutionBudget(ExecutionBudget.UNLIMITED, ExecutionBudget.UNLIMITED, 200, Integer.MAX_VALUE));
+        run(interpreter, "fun spin(n) {\n var i = 0;\n while (i < n) { i = i + 1; }\n}\n" +
+                "while (true) { spin(10000); }");
+        profiler.stop();
+
+        StringWriter out = new StringWriter();
+        profiler.writeCollapsed(out);
+        assertTrue(out.toString(), out.toString().startsWith("<script>:5;spin:3 "));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotSampleInvariantCallsAnsweredFromTheLoopCache() throws Exception {
+        Interpreter interpreter = new Interpreter();
+        ExecutionMetrics metrics = new ExecutionMetrics();
+        interpreter.setMetrics(metrics);
+        SamplingProfiler profiler = new SamplingProfiler(100, TimeUnit.MICROSECONDS);
+        interpreter.setProfiler(profiler);
+        profiler.start();
+        interpreter.setBudget(new ExecutionBudget(ExecutionBudget.UNLIMITED, ExecutionBudget.UNLIMITED, 200, Integer.MAX_VALUE));
+        run(interpreter, "fun spin(n) {\n var i = 0;\n while (i < n) { i = i + 1; }\n return i;\n}\n" +
+                "var total = 0; while (true) { total = total + spin(10000); }");
+        profiler.stop();
+
+        StringWriter out = new StringWriter();
+        profiler.writeCollapsed(out);
+        assertEquals(1, calls(metrics, "spin"));
+        assertTrue(out.toString(), out.toString().startsWith("<script>:6 "));
+    }
+
+    @Test
+    public void shouldCountFunctionCallsAndExposeThemOverJmx() throws Exception {
+        Interpreter interpreter = new Interpreter();
+        ExecutionMetrics metrics = new ExecutionMetrics();
+        interpreter.setMetrics(metrics);
+        metrics.register();
+        run(interpreter, "fun fib(n) { if (n < 2) return n; return fib(n - 2) + fib(n - 1); }\nvar r = fib(10);");
+
+        assertEquals(55.0, global(interpreter, "r"));
+        FunctionMetric fib = metrics.getHotFunctions().stream()
+                .filter(f -> f.getFunction().startsWith("fib"))
+                .findFirst()
+                .get();
+        assertEquals(177, fib.getCalls());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        CompositeData[] hotNodes = (CompositeData[]) server.getAttribute(new ObjectName(ExecutionMetrics.OBJECT_NAME), "HotNodes");
+        assertTrue(hotNodes.length > 0);
+    }
+
+    @Test
+    public void shouldKeepBranchesOfAnAppendedStringApart() {
+        Interpreter interpreter = new Interpreter();
+        run(interpreter, "var s = \"\"; for (var i = 0; i < 1000; i = i + 1) { s = s + \"ab\"; }" +
+                "var x = s + \"X\"; var y = s + \"Y\"; var same = s + \"X\" == x;");
+
+        String s = global(interpreter, "s").toString();
+        assertEquals(2000, s.length());
+        assertEquals(s + "X", global(interpreter, "x").toString());
+        assertEquals(s + "Y", global(interpreter, "y").toString());
+        assertEquals(true, global(interpreter, "same"));
+    }
+
+    @Test
+    public void shouldIndexArraysAndMaps() {
+        Interpreter interpreter = new Interpreter();
+        run(interpreter, "var a = [1, 2, 3]; a.push(4); a[0] = a[1] + a[3];" +
+                "var m = Map(); m[\"k\" + \"ey\"] = a; m[-0] = \"zero\";" +
+                "var first = m[\"key\"][0]; var zero = m[0]; var missing = m[\"nope\"];" +
+                "var b = Array(3); b[2] = \"x\";");
+
+        LoxArray a = (LoxArray) global(interpreter, "a");
+        assertEquals(4, a.size());
+        assertTrue(a.isNumeric());
+        assertEquals(6.0, global(interpreter, "first"));
+        assertEquals("zero", global(interpreter, "zero"));
+        assertEquals(null, global(interpreter, "missing"));
+        LoxArray b = (LoxArray) global(interpreter, "b");
+        assertFalse(b.isNumeric());
+        assertEquals("[0, 0, x]", b.toString());
+    }
+
+    @Test
+    public void shouldRejectArrayLengthsOutOfRange() {
+        assertTrue(runtimeErrors("Array(-1);").contains("Array length must be a non-negative integer."));
+        assertTrue(runtimeErrors("Array(1.5);").contains("Array length must be a non-negative integer."));
+        String tooLong = runtimeErrors("Array(4294967296);");
+        assertTrue(tooLong, tooLong.contains("Array length 4294967296 is more than"));
+        assertTrue(runtimeErrors("Array(100000000000000000000);").contains("elements the heap can hold."));
+    }
+
+    @Test
+    public void shouldPrintContainersThatContainThemselves() {
+        Interpreter interpreter = new Interpreter();
+        MemoryOutputSink output = new MemoryOutputSink();
+        interpreter.setOutput(output);
+        run(interpreter, "var a = [1]; a.push(a); print a;" +
+                "var m = Map(); m[\"self\"] = m; m[\"list\"] = a; print m;" +
+                "var shared = [2]; print [shared, shared];");
+
+        assertEquals("[1, [...]]\n{self: {...}, list: [1, [...]]}\n[[2], [2]]\n", output.getText());
+    }
+
+    @Test
+    public void shouldReportFractionalArrayIndexesApartFromRangeErrors() {
+        assertTrue(runtimeErrors("var a = [1, 2]; a[1.5];").contains("Array index must be an integer."));
+        assertTrue(runtimeErrors("var a = [1, 2]; a[2];").contains("Array index 2 is out of bounds for length 2."));
+        assertTrue(runtimeErrors("var a = [1, 2]; a[\"x\"] = 1;").contains("Array index must be a number."));
+    }
+
+    @Test
+    public void shouldShareBoxesForSmallIntegersButKeepNegativeZero() {
+        Interpreter interpreter = new Interpreter();
+        run(interpreter, "var a = 40 + 2; var b = 84 / 2; var z = -0; var inf = 1 / z;");
+
+        assertTrue(global(interpreter, "a") == global(interpreter, "b"));
+        assertEquals(Double.NEGATIVE_INFINITY, global(interpreter, "inf"));
+    }
+
+    @Test
+    public void shouldPrintIntoTheConfiguredSink() {
+        Interpreter interpreter = new Interpreter();
+        MemoryOutputSink output = new MemoryOutputSink();
+        interpreter.setOutput(output);
+        run(interpreter, "print 1; print \"two\"; print nil;");
+
+        assertEquals("1\ntwo\nnil\n", output.getText());
+    }
+
+    @Test
+    public void shouldFormatNumbersAsIntegersOrShortestDecimals() {
+        assertEquals("42", LoxValues.toString(42));
+        assertEquals("10000000", LoxValues.toString(1e7));
+        assertEquals("-0", LoxValues.toString(-0.0));
+        assertEquals("0.30000000000000004", LoxValues.toString(0.1 + 0.2));
+        assertEquals("1.0E-4", LoxValues.toString(0.0001));
+        assertEquals("1.0E23", LoxValues.toString(1e23));
+        assertEquals("5.0E-324", LoxValues.toString(Double.MIN_VALUE));
+        assertEquals("0.002", LoxValues.toString(0.002));
+    }
+
+    @Test
+    public void shouldAnswerRepeatedCallsFromTheMemoCache() {
+        Interpreter interpreter = new Interpreter();
+        ExecutionMetrics metrics = new ExecutionMetrics();
+        interpreter.setMetrics(metrics);
+        run(interpreter, "var calls = 0;" +
+                "fun fib(n) { calls = calls + 1; if (n < 2) return n; return fib(n - 2) + fib(n - 1); }" +
+                "fib = memoizeLfu(fib, 100); var r = fib(30);" +
+                "fun id(x) { calls = calls + 1; return x; } var cached = memoize(id, 2);" +
+                "cached(\"a\" + \"b\"); cached(\"ab\"); cached(-0); cached(0);");
+
+        assertEquals(832040.0, global(interpreter, "r"));
+        assertEquals(31.0 + 2, global(interpreter, "calls"));
+        CacheMetric lru = metrics.getCaches().get(1);
+        assertEquals("lru", lru.getPolicy());
+        assertEquals(2, lru.getHits());
+        assertEquals(2, lru.getMisses());
+    }
+
+    @Test
+    public void shouldCountCallsOfFunctionsWithEmptyBodiesAndTailCalls() {
+        Interpreter interpreter = new Interpreter();
+        ExecutionMetrics metrics = new ExecutionMetrics();
+        interpreter.setMetrics(metrics);
+        run(interpreter, "fun nothing(x) {} var i = 0; while (i < 5) { nothing(i); i = i + 1; }" +
+                "fun down(n) { if (n == 0) return 0; return down(n - 1); } down(7);");
+
+        assertEquals(5, calls(metrics, "nothing"));
+        assertEquals(8, calls(metrics, "down"));
+    }
+
+    @Test
+    public void shouldCallLoopInvariantPureFunctionsOncePerLoop() {
+        Interpreter interpreter = new Interpreter();
+        ExecutionMetrics metrics = new ExecutionMetrics();
+        interpreter.setMetrics(metrics);
+        run(interpreter, "fun square(x) { return x * x; } fun log(x) { print x; return x; }" +
+                "var n = 3; var total = 0;" +
+                "for (var i = 0; i < 10; i = i + 1) { total = total + square(n); }" +
+                "for (var i = 0; i < 10; i = i + 1) { total = total + square(i); }" +
+                "for (var i = 0; i < 10; i = i + 1) { total = total + square(n) + log(0); }");
+
+        assertEquals(90.0 + 285 + 90, global(interpreter, "total"));
+        assertEquals(1 + 10 + 10, calls(metrics, "square"));
+    }
+
+    @Test
+    public void shouldRunCountedLoopsLikeOrdinaryOnes() {
+        Interpreter interpreter = new Interpreter();
+        MemoryOutputSink output = new MemoryOutputSink();
+        interpreter.setOutput(output);
+        run(interpreter, "var n = 4;" +
+                "for (var i = 0; i < n; i = i + 1) { if (i == 1) continue; if (i == 3) break; print i; }" +
+                "for (var i = 2; i >= 1; i = i - 0.5) print i;" +
+                "var f; for (var i = 0; i < 2; i = i + 1) { fun g() { return i; } f = g; } print f();" +
+                "var t = 0; for (var i = 0; i < 5; i = i + 1) t = t + 2; print t;" +
+                "var pairs = 0; for (var i = 0; i < 4; i = i + 1) for (var j = 0; j < i; j = j + 1) pairs = pairs + 1; print pairs;");
+
+        assertEquals("0\n2\n2\n1.5\n1\n2\n10\n6\n", output.getText());
+    }
+
+    @Test
+    public void shouldKeepCapturedScopesAliveAndRecycleTheRest() {
+        Interpreter interpreter = new Interpreter();
+        run(interpreter, "fun depth(n) { if (n == 0) return 0; { var below = depth(n - 1); { var one = 1; return below + one; } } }" +
+                "fun counter() { var c = 0; { var step = 1; fun next() { c = c + step; return c; } return next; } }" +
+                "var a = counter(); var b = counter(); a(); a(); b();" +
+                "var d = depth(50); var ca = a(); var cb = b();");
+
+        assertEquals(50.0, global(interpreter, "d"));
+        assertEquals(3.0, global(interpreter, "ca"));
+        assertEquals(2.0, global(interpreter, "cb"));
+    }
+
+    @Test
+    public void shouldShareCapturedVariablesBetweenClosuresAndTheirScope() {
+        Interpreter interpreter = new Interpreter();
+        run(interpreter, "fun outer() { var n = 0; var unused = Array(1000);" +
+                "fun middle() { fun inner() { n = n + 1; return n; } return inner; }" +
+                "var bump = middle(); bump(); bump(); n = n + 10; return bump; }" +
+                "var bump = outer(); var third = bump();" +
+                "var shadowed; { var a = 1; { var a = 2; a = 3; } shadowed = a; }");
+
+        assertEquals(13.0, global(interpreter, "third"));
+        assertEquals(1.0, global(interpreter, "shadowed"));
+    }
+
+    @Test
+    public void shouldInheritMethodsAndCallOverriddenOnesThroughSuper() {
+        Interpreter interpreter = new Interpreter();
+        run(interpreter, "class A { init(n) { this.n = n; } name() { return \"A\"; } describe() { return this.name() + this.n; } }" +
+                "class B < A { name() { return \"B\" + super.name(); } }" +
+                "class C < B { init(n) { super.init(n + 1); } }" +
+                "var described = C(1).describe();");
+
+        assertEquals("BA2", global(interpreter, "described").toString());
+    }
+
+    @Test
+    public void shouldBindMethodsOnlyWhenReadAsValues() {
+        Interpreter interpreter = new Interpreter();
+        run(interpreter, "class P { init(x) { this.x = x; } get() { return this.x; }" +
+                "count(n) { if (n == 0) return this.x; return this.count(n - 1); } }" +
+                "var p = P(7); var bound = p.get; var viaValue = bound(); var deep = p.count(50000);" +
+                "p.get = fun () { return 1; }; var viaField = p.get();");
+
+        assertEquals(7.0, global(interpreter, "viaValue"));
+        assertEquals(7.0, global(interpreter, "deep"));
+        assertEquals(1.0, global(interpreter, "viaField"));
+        assertTrue(global(interpreter, "bound") instanceof LoxBoundMethod);
+    }
+
+    @Test
+    public void shouldRunPropertyAccessorsAndStaticMembers() {
+        Interpreter interpreter = new Interpreter();
+        run(interpreter, "var made = 0;" +
+                "class Rect { init(w, h) { this.w = w; this.h = h; made = made + 1; }" +
+                "area { get { return this.w * this.h; } }" +
+                "width { get { return this.w; } set { this.w = value; } }" +
+                "class count { get { return made; } }" +
+                "class square(n) { return Rect(n, n); } }" +
+                "class Big < Rect { area { get { return super.area * 10; } } }" +
+                "var r = Rect(2, 3); r.width = 5; var area = r.area;" +
+                "var squared = Big.square(3).area; var big = Big(1, 2).area; var count = Rect.count;");
+
+        assertEquals(15.0, global(interpreter, "area"));
+        assertEquals(9.0, global(interpreter, "squared"));
+        assertEquals(20.0, global(interpreter, "big"));
+        assertEquals(3.0, global(interpreter, "count"));
+    }
+
+    @Test
+    public void shouldKeepFixedLayoutFieldsInSlotsAndCountAllocations() {
+        Interpreter interpreter = new Interpreter();
+        ExecutionMetrics metrics = new ExecutionMetrics();
+        interpreter.setMetrics(metrics);
+        run(interpreter, "class Vec { init(x, y) { this.x = x; this.y = y; } len() { return this.x + this.y; } }" +
+                "layout(Vec, [\"x\", \"y\"]);" +
+                "var v = Vec(0, 0); var first = v; for (var i = 0; i < 100; i = i + 1) { v = Vec(v.x + 1, v.y + 2); }" +
+                "var len = v.len(); var rejected = false;" +
+                "fun extra() { v.z = 1; rejected = true; } extra();");
+
+        assertEquals(300.0, global(interpreter, "len"));
+        assertEquals(false, global(interpreter, "rejected"));
+        FieldLayout layout = ((LoxInstance) global(interpreter, "v")).getLayout();
+        assertTrue(layout != null);
+        assertTrue(layout == ((LoxInstance) global(interpreter, "first")).getLayout());
+        assertEquals(0, layout.slot(Symbols.find("x")));
+        assertEquals(1, layout.slot(Symbols.find("y")));
+        assertEquals(-1, layout.slot(Symbols.find("z")));
+        ClassMetric vec = metrics.getClasses().get(0);
+        assertEquals("Vec", vec.getClassName());
+        assertEquals(101, vec.getAllocated());
+        assertTrue(vec.isFixedLayout());
+    }
+
+    @Test
+    public void shouldNotEstimateMoreLiveInstancesThanWereAllocated() {
+        Interpreter interpreter = new Interpreter();
+        ExecutionMetrics metrics = new ExecutionMetrics();
+        interpreter.setMetrics(metrics);
+        run(interpreter, "class One {} var kept = One();" +
+                "class Few {} var few = []; for (var i = 0; i < 5; i = i + 1) few.push(Few());");
+
+        for(ClassMetric c : metrics.getClasses()) {
+            assertEquals(c.getClassName(), c.getAllocated(), c.getLiveEstimate());
+        }
+        assertEquals(2, metrics.getClasses().size());
+    }
+
+    @Test
+    public void shouldCallStaticJavaMethodsBoundAsNatives() throws Exception {
+        Interpreter interpreter = new Interpreter();
+        interpreter.defineNative("max", Math.class.getMethod("max", double.class, double.class));
+        interpreter.defineNative("abs", Math.class.getMethod("abs", int.class));
+        interpreter.defineNative("parse", Integer.class.getMethod("parseInt", String.class));
+        run(interpreter, "var bigger = max(2, 3); var positive = abs(-4); var number = parse(\"4\" + \"2\");" +
+                "var failed = true; fun fractional() { abs(1.5); failed = false; } fractional();");
+
+        assertEquals(3.0, global(interpreter, "bigger"));
+        assertEquals(4.0, global(interpreter, "positive"));
+        assertEquals(42.0, global(interpreter, "number"));
+        assertEquals(true, global(interpreter, "failed"));
+    }
+
+    @Test
+    public void shouldCallMethodsOfJavaObjects() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.defineObject("list", new java.util.ArrayList<Object>());
+        interpreter.defineObject("text", new StringBuilder());
+        run(interpreter, "list.add(1); list.add(\"two\"); var size = list.size(); var second = list.get(1);" +
+                "text.append(\"a\").append(2); var length = text.length(); var built = text.toString();" +
+                "var sublist = list.subList(0, 1); var first = sublist.get(0); var same = list == list;");
+
+        assertEquals(2.0, global(interpreter, "size"));
+        assertEquals("two", global(interpreter, "second"));
+        assertEquals(4.0, global(interpreter, "length"));
+        assertEquals("a2.0", global(interpreter, "built"));
+        assertEquals(1.0, global(interpreter, "first"));
+        assertEquals(true, global(interpreter, "same"));
+    }
+
+    @Test
+    public void shouldKeepReflectionAndUnusableMethodsFromScripts() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.defineObject("text", new StringBuilder("abc"));
+        java.util.List<Object> classes = new java.util.ArrayList<>();
+        classes.add(String.class);
+        interpreter.defineObject("classes", classes);
+
+        assertTrue(runtimeErrors(interpreter, "print text.getClass;")
+                .contains("Undefined property 'getClass' of StringBuilder."));
+        assertTrue(runtimeErrors(interpreter, "text.getClass();")
+                .contains("Undefined property 'getClass' of StringBuilder."));
+        //its only overload takes a char, which no Lox value converts to
+        assertTrue(runtimeErrors(interpreter, "print text.setCharAt;")
+                .contains("Undefined property 'setCharAt' of StringBuilder."));
+        assertTrue(runtimeErrors(interpreter, "classes.get(0);")
+                .contains("Scripts cannot use a java.lang.Class."));
+        run(interpreter, "var same = text.equals(text); var shown = text.toString();");
+        assertEquals(true, global(interpreter, "same"));
+        assertEquals("abc", global(interpreter, "shown"));
+    }
+
+    @Test
+    public void shouldWriteReadStreamAndMapFiles() throws Exception {
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("lox", ".txt");
+        try {
+            String path = file.toString().replace("\\", "/");
+            Interpreter interpreter = new Interpreter();
+            run(interpreter, "var written = writeFile(\"" + path + "\", \"one\ntwo\r\nthree\");" +
+                    "var text = readFile(\"" + path + "\"); var lines = readLines(\"" + path + "\"); var joined = \"\";" +
+                    "while (lines.hasNext()) { joined = joined + lines.next() + \"|\"; }" +
+                    "var mapped = mapFile(\"" + path + "\"); var newlines = mapped.count(\"\n\");" +
+                    "var at = mapped.indexOf(\"three\", 0); var slice = mapped.text(4, 3);");
+
+            assertEquals(14.0, global(interpreter, "written"));
+            assertEquals("one\ntwo\r\nthree", global(interpreter, "text").toString());
+            assertEquals("one|two|three|", global(interpreter, "joined").toString());
+            assertEquals(2.0, global(interpreter, "newlines"));
+            assertEquals(9.0, global(interpreter, "at"));
+            assertEquals("two", global(interpreter, "slice"));
+        } finally {
+            java.nio.file.Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldStreamLinesAcrossBuffersAndCloseAbandonedReaders() throws Exception {
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("lox", ".txt");
+        try {
+            //200,000 lines of 17 or 18 bytes, 3.4 MB, so lines straddle many 64 KB reads
+            StringBuilder text = new StringBuilder();
+            for(int i = 0; i < 200_000; i++) {
+                text.append("line number ").append(i % 100_000 + 100_000).append(i % 2 == 0 ? "\n" : "\r\n");
+            }
+            java.nio.file.Files.write(file, text.toString().getBytes("UTF-8"));
+            String path = file.toString().replace("\\", "/");
+            Interpreter interpreter = new Interpreter();
+            run(interpreter, "var lines = []; for (line in readLines(\"" + path + "\")) lines.push(line);" +
+                    "var abandoned = readLines(\"" + path + "\"); var first = abandoned.next();");
+
+            LoxArray lines = (LoxArray) global(interpreter, "lines");
+            assertEquals(200_000, lines.size());
+            for(int i = 0; i < lines.size(); i++) {
+                assertEquals("line number " + (i % 100_000 + 100_000), lines.get(i).toString());
+            }
+            assertEquals("line number 100000", global(interpreter, "first").toString());
+            //the reader read to the end closed itself, the abandoned one is left to closeFiles
+            assertEquals(1, interpreter.openFiles().size());
+            interpreter.closeFiles();
+            assertTrue(interpreter.openFiles().isEmpty());
+        } finally {
+            java.nio.file.Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldResolveFilesAgainstTheScriptAndReportFailingIterators() throws Exception {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("lox");
+        try {
+            Interpreter interpreter = new Interpreter();
+            interpreter.setScriptPath(dir.resolve("main.lox"));
+            run(interpreter, "writeFile(\"out.txt\", \"next to the script\"); var text = readFile(\"out.txt\");");
+            assertEquals("next to the script", global(interpreter, "text").toString());
+            assertTrue(java.nio.file.Files.exists(dir.resolve("out.txt")));
+        } finally {
+            java.nio.file.Files.delete(dir.resolve("out.txt"));
+            java.nio.file.Files.delete(dir);
+        }
+
+        Interpreter interpreter = new Interpreter();
+        interpreter.defineObject("broken", new java.util.Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                throw new java.io.UncheckedIOException(new java.io.IOException("disk gone"));
+            }
+
+            @Override
+            public Object next() {
+                return null;
+            }
+        });
+        String errors = runtimeErrors(interpreter, "var n = 0;\nfor (x in broken) n = n + 1;");
+        assertTrue(errors, errors.contains("disk gone"));
+        assertTrue(errors, errors.contains("[line 2]"));
+    }
+
+    @Test
+    public void shouldRunTailCallsInConstantDepth() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setBudget(new ExecutionBudget(ExecutionBudget.UNLIMITED, ExecutionBudget.UNLIMITED, ExecutionBudget.UNLIMITED, 100));
+        run(interpreter, "fun count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); }" +
+                "fun even(n) { if (n == 0) return true; return odd(n - 1); }" +
+                "fun odd(n) { if (n == 0) return false; return even(n - 1); }" +
+                "var counted = count(100000, 0); var isEven = even(10001);" +
+                //a frame a closure captured is not reused by the next call
+                "fun collect(n, fs) { if (n == 0) return fs; fs.push(fun () { return n; }); return collect(n - 1, fs); }" +
+                "var fs = collect(3, []); var captured = \"\" + fs[0]() + fs[1]() + fs[2]();");
+
+        assertEquals(100000.0, global(interpreter, "counted"));
+        assertEquals(false, global(interpreter, "isEven"));
+        assertEquals("321", global(interpreter, "captured").toString());
+
+        //the same recursion outside a return still takes a frame per call
+        String errors = runtimeErrors(interpreter, "fun deep(n) { if (n == 0) return 0; return 1 + deep(n - 1); } deep(1000);");
+        assertTrue(errors, errors.contains("Call depth exceeded the limit of 100."));
+    }
+
+    @Test
+    public void shouldRunGeneratorsOnDemandInForInLoops() {
+        Interpreter interpreter = new Interpreter();
+        run(interpreter, "var started = 0;" +
+                "fun naturals() { started = started + 1; var i = 0; while (true) { yield i; i = i + 1; } }" +
+                "fun squares(values) { for (x in values) yield x * x; }" +
+                "var numbers = squares(naturals()); var before = started; var sum = 0;" +
+                "for (x in numbers) { if (x > 50) break; if (x == 4) continue; sum = sum + x; }" +
+                "var next = numbers.next();" +
+                "var keys = \"\"; var m = Map(); m[\"a\"] = 1; for (k in m) keys = keys + k;" +
+                "var fs = []; for (i in [1, 2, 3]) fs.push(fun () { return i; });" +
+                "var captured = fs[0]() + fs[2]();" +
+                "fun two() { yield 1; yield 2; } var g = two(); var first = g.next(); g.close();" +
+                "var closed = g.hasNext();");
+
+        assertEquals(0.0, global(interpreter, "before"));
+        assertEquals(1.0, global(interpreter, "started"));
+        assertEquals(0.0 + 1 + 9 + 16 + 25 + 36 + 49, global(interpreter, "sum"));
+        //breaking out of the loop leaves the generator where it stopped
+        assertEquals(81.0, global(interpreter, "next"));
+        assertEquals("a", global(interpreter, "keys").toString());
+        assertEquals(4.0, global(interpreter, "captured"));
+        assertEquals(1.0, global(interpreter, "first"));
+        assertEquals(false, global(interpreter, "closed"));
+    }
+
+    @Test
+    public void shouldKeepLoopAndCallStatePerGenerator() {
+        Interpreter interpreter = new Interpreter();
+        run(interpreter, "fun sq(n) { return n * n; }" +
+                "fun gen(k) { for (var i = 0; i < 3; i = i + 1) yield sq(k); }" +
+                "fun each(k) { for (x in [1, 2, 3]) yield sq(k) + x; }" +
+                "var a = gen(1); var b = gen(2); var c = each(10); var d = each(20);" +
+                "var counted = \"\" + a.next() + b.next() + a.next() + b.next();" +
+                "var walked = \"\" + c.next() + d.next() + c.next() + d.next();");
+
+        assertEquals("1414", global(interpreter, "counted").toString());
+        assertEquals("101401102402", global(interpreter, "walked").toString());
+
+        //the body calls id on line 2 before it ends, the error is still the next() on line 4
+        String errors = runtimeErrors("fun id(x) { return x; }\nfun gen() { yield 1; id(2); }\n" +
+                "var g = gen(); g.next();\ng.next();");
+        assertTrue(errors, errors.contains("The generator has no more values.\n[line 4]"));
+    }
+
+    @Test
+    public void shouldLimitSuspendedGenerators() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setStrandLimit(4);
+        //finished and closed generators give their threads back, suspended ones hold them
+        run(interpreter, "fun gen() { yield 1; yield 2; }" +
+                "for (var i = 0; i < 20; i = i + 1) for (x in gen()) {}" +
+                "var kept = []; for (var i = 0; i < 4; i = i + 1) { var g = gen(); g.next(); kept.push(g); }" +
+                "kept[0].close(); var g = gen(); var reused = g.next();");
+        assertEquals(1.0, global(interpreter, "reused"));
+
+        String errors = runtimeErrors(interpreter, "var more = gen();\nmore.next();");
+        assertTrue(errors, errors.contains("Too many generators are suspended at once; at most 4 can be"));
+        assertTrue(errors, errors.contains("[line 2]"));
+    }
+
+    @Test
+    public void shouldRunImportedModulesOnFirstAccess() throws Exception {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("lox");
+        java.nio.file.Path lib = java.nio.file.Files.createDirectory(dir.resolve("lib"));
+        try {
+            java.nio.file.Files.write(lib.resolve("counter.lox"), ("loaded = loaded + 1; var count = 0;" +
+                    "fun increment() { count = count + 1; return count; } import \"names.lox\";" +
+                    "fun greet() { return names.hello; }").getBytes("UTF-8"));
+            java.nio.file.Files.write(lib.resolve("names.lox"), "var hello = \"hi\";".getBytes("UTF-8"));
+            Interpreter interpreter = new Interpreter();
+            interpreter.setScriptPath(dir.resolve("main.lox"));
+            run(interpreter, "var loaded = 0; import \"lib/counter.lox\"; import \"lib/counter.lox\" as again;" +
+                    "var before = loaded; counter.increment(); again.increment(); var count = counter.count;" +
+                    "var greeting = counter.greet();");
+
+            assertEquals(0.0, global(interpreter, "before"));
+            assertEquals(1.0, global(interpreter, "loaded"));
+            assertEquals(2.0, global(interpreter, "count"));
+            assertEquals("hi", global(interpreter, "greeting"));
+        } finally {
+            java.nio.file.Files.delete(lib.resolve("counter.lox"));
+            java.nio.file.Files.delete(lib.resolve("names.lox"));
+            java.nio.file.Files.delete(lib);
+            java.nio.file.Files.delete(dir);
+        }
+    }
+
+    private static long calls(ExecutionMetrics metrics, String function) {
+        return metrics.getHotFunctions().stream()
+                .filter(f -> f.getFunction().startsWith(function))
+                .findFirst()
+                .get()
+                .getCalls();
+    }
+
+    private static Object global(Interpreter interpreter, String name) {
+        return interpreter.getGlobals().get(new Token(TokenType.IDENTIFIER, name, null, 1));
+    }
+
+    //what running the source in a new interpreter reports on stderr
+    private static String runtimeErrors(String source) {
+        return runtimeErrors(new Interpreter(), source);
+    }
+
+    private static String runtimeErrors(Interpreter interpreter, String source) {
+        java.io.ByteArrayOutputStream err = new java.io.ByteArrayOutputStream();
+        java.io.PrintStream stderr = System.err;
+        System.setErr(new java.io.PrintStream(err, true));
+        try {
+            run(interpreter, source);
+        } finally {
+            System.setErr(stderr);
+        }
+        return err.toString();
+    }
+
+    private static void run(Interpreter interpreter, String source) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver(interpreter).resolve(statements);
+        interpreter.interpret(statements);
+    }
+}